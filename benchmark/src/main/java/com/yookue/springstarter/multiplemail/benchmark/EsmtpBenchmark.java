@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.benchmark;
+
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.mail.MailConfigurationUtils;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.support.DecoratedMailSender;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+
+/**
+ * Benchmarks of sending messages with and without ESMTP {@code PIPELINING} and {@code CHUNKING}
+ * <p>
+ * The transport is pooled, so that only the round trips of the envelope and the content are measured.
+ * Without extensions, a message costs {@code 1 + recipients} round trips for the envelope and {@code 2} for the content,
+ * with both extensions, it costs {@code 1} for the envelope and {@code 1} for the content (if smaller than a chunk).
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.benchmark.SmtpSink
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused")
+public class EsmtpBenchmark {
+    @Param({"500", "2000"})
+    private long latencyMicros;
+
+    @Param({"1", "10"})
+    private int recipients;
+
+    @Param({"none", "pipelining", "chunking", "both"})
+    private String extensions;
+
+    private SmtpSink sink;
+    private JavaMailSenderImpl sender;
+    private MimeMessage message;
+
+    @Setup
+    public void setup() throws IOException, MessagingException {
+        sink = new SmtpSink(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros)));
+        MailProperties mailProperties = new MailProperties();
+        mailProperties.setHost(sink.getHost());
+        mailProperties.setPort(sink.getPort());
+        MailSenderProperties properties = new MailSenderProperties();
+        properties.getPool().setEnabled(true);
+        properties.getPool().setMaxSize(1);
+        properties.getPool().setMaxMessages(0);
+        properties.getPool().setValidateOnBorrow(false);
+        properties.getEsmtp().setPipelining(extensions.equals("pipelining") || extensions.equals("both"));
+        properties.getEsmtp().setChunking(extensions.equals("chunking") || extensions.equals("both"));
+        sender = MailSenderUtils.decorateMailSender("esmtpMailSender", MailConfigurationUtils.classicMailSender(mailProperties, null), properties);
+        message = sender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, false, "UTF-8");
+        helper.setFrom("sender@example.com");
+        String[] addresses = new String[recipients];
+        for (int i = 0; i < recipients; i++) {
+            addresses[i] = "recipient" + i + "@example.com";
+        }
+        helper.setTo(addresses);
+        helper.setSubject("Benchmark");
+        helper.setText("Hello, benchmark!");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (sender instanceof DecoratedMailSender decorated) {
+            decorated.destroy();
+        }
+        sink.close();
+    }
+
+    @Benchmark
+    public void send() {
+        sender.send(message);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.benchmark;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+
+/**
+ * Benchmarks of building and encoding mime messages, without any network
+ *
+ * @author David Hsing
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused")
+public class MimeBuildBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    private int attachmentSize;
+
+    private Session session;
+    private ByteArrayResource attachment;
+    private String htmlBody;
+
+    @Setup
+    public void setup() {
+        session = Session.getInstance(new Properties());
+        byte[] bytes = new byte[attachmentSize];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        attachment = new ByteArrayResource(bytes);
+        htmlBody = "<html><body>" + "<p>Hello, benchmark!</p>".repeat(64) + "</body></html>";
+    }
+
+    @Benchmark
+    public long simpleMessage() throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(session);
+        MimeMessageHelper helper = new MimeMessageHelper(message, false, "UTF-8");
+        fillHeaders(helper);
+        helper.setText("Hello, benchmark!");
+        return encode(message);
+    }
+
+    @Benchmark
+    public long multipartMessage() throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(session);
+        MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED, "UTF-8");
+        fillHeaders(helper);
+        helper.setText("Hello, benchmark!", htmlBody);
+        helper.addAttachment("attachment.bin", attachment, "application/octet-stream");
+        return encode(message);
+    }
+
+    private void fillHeaders(@Nonnull MimeMessageHelper helper) throws MessagingException {
+        helper.setFrom("sender@example.com");
+        helper.setTo("recipient@example.com");
+        helper.setSubject("Benchmark");
+    }
+
+    private long encode(@Nonnull MimeMessage message) throws MessagingException, IOException {
+        message.saveChanges();
+        CountingOutputStream output = new CountingOutputStream();
+        message.writeTo(output);
+        return output.count;
+    }
+
+
+    /**
+     * Output stream that counts and discards the bytes
+     *
+     * @author David Hsing
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
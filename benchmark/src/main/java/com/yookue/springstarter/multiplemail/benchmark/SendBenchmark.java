@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.benchmark;
+
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.mail.MailConfigurationUtils;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import com.yookue.springstarter.multiplemail.enumeration.MailBalanceStrategy;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.support.BalancedMailSender;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+
+/**
+ * Benchmarks of sending messages to an embedded SMTP sink
+ * <p>
+ * Parameter {@code latencyMicros} simulates the round trip time of a remote server.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.benchmark.SmtpSink
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused")
+public class SendBenchmark {
+    private static final int SLOT_COUNT = 3;
+
+    @Param({"0", "500"})
+    private long latencyMicros;
+
+    @Param({"10"})
+    private int batchSize;
+
+    private SmtpSink sink;
+    private JavaMailSenderImpl plainSender;
+    private JavaMailSenderImpl pooledSender;
+    private BalancedMailSender balancedSender;
+    private final Map<String, JavaMailSender> slotSenders = new LinkedHashMap<>();
+    private MimeMessage message;
+    private MimeMessage[] batch;
+
+    @Setup
+    public void setup() throws IOException, MessagingException {
+        sink = new SmtpSink(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros)));
+        plainSender = MailConfigurationUtils.classicMailSender(buildMailProperties(), null);
+        pooledSender = buildPooledSender("benchmarkMailSender", 1);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            String name = "slot" + i + MailSenderUtils.MAIL_SENDER_SUFFIX;
+            slotSenders.put(name, buildPooledSender(name, 8));
+        }
+        balancedSender = new BalancedMailSender(slotSenders, MailBalanceStrategy.ROUND_ROBIN, null, 3, Duration.ofSeconds(30L));
+        message = buildMessage(plainSender, 0);
+        batch = new MimeMessage[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = buildMessage(plainSender, i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Object sender : slotSenders.values()) {
+            if (sender instanceof DisposableBean bean) {
+                bean.destroy();
+            }
+        }
+        if (pooledSender instanceof DisposableBean bean) {
+            bean.destroy();
+        }
+        sink.close();
+    }
+
+    /**
+     * One message per SMTP session, connecting and quitting every time
+     */
+    @Benchmark
+    public void singleSend() {
+        plainSender.send(message);
+    }
+
+    /**
+     * One message per borrowed transport, connecting only once
+     */
+    @Benchmark
+    public void singleSendPooled() {
+        pooledSender.send(message);
+    }
+
+    /**
+     * Many messages in one SMTP session
+     */
+    @Benchmark
+    public void batchedSend() {
+        plainSender.send(batch);
+    }
+
+    /**
+     * Concurrent callers spread across several slots
+     */
+    @Benchmark
+    @Threads(8)
+    public void concurrentSend() {
+        balancedSender.send(message);
+    }
+
+    @Nonnull
+    private MailProperties buildMailProperties() {
+        MailProperties properties = new MailProperties();
+        properties.setHost(sink.getHost());
+        properties.setPort(sink.getPort());
+        return properties;
+    }
+
+    @Nonnull
+    private JavaMailSenderImpl buildPooledSender(@Nonnull String name, int poolSize) {
+        MailSenderProperties properties = new MailSenderProperties();
+        properties.getPool().setEnabled(true);
+        properties.getPool().setMaxSize(poolSize);
+        properties.getPool().setMaxMessages(0);
+        properties.getPool().setValidateOnBorrow(false);
+        return MailSenderUtils.decorateMailSender(name, MailConfigurationUtils.classicMailSender(buildMailProperties(), null), properties);
+    }
+
+    @Nonnull
+    private static MimeMessage buildMessage(@Nonnull JavaMailSenderImpl sender, int index) throws MessagingException {
+        MimeMessage result = sender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(result, false, "UTF-8");
+        helper.setFrom("sender@example.com");
+        helper.setTo("recipient" + index + "@example.com");
+        helper.setSubject("Benchmark " + index);
+        helper.setText("Hello, benchmark!");
+        return result;
+    }
+}
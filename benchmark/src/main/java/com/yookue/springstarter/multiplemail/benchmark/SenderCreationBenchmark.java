@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.mail.MailConfigurationUtils;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+
+/**
+ * Benchmarks of creating mail senders from properties
+ *
+ * @author David Hsing
+ * @see org.springframework.boot.autoconfigure.mail.MailConfigurationUtils
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("unused")
+public class SenderCreationBenchmark {
+    private MailProperties minimalProperties;
+    private MailProperties detailedProperties;
+
+    @Setup
+    public void setup() {
+        minimalProperties = new MailProperties();
+        minimalProperties.setHost("localhost");
+        detailedProperties = new MailProperties();
+        detailedProperties.setHost("localhost");
+        detailedProperties.setPort(587);
+        detailedProperties.setUsername("foo");
+        detailedProperties.setPassword("bar");
+        detailedProperties.setProtocol("smtp");
+        detailedProperties.getProperties().put("mail.smtp.auth", "true");
+        detailedProperties.getProperties().put("mail.smtp.starttls.enable", "true");
+        detailedProperties.getProperties().put("mail.smtp.connectiontimeout", "5000");
+        detailedProperties.getProperties().put("mail.smtp.timeout", "5000");
+        detailedProperties.getProperties().put("mail.smtp.writetimeout", "5000");
+    }
+
+    @Benchmark
+    public JavaMailSenderImpl minimalSender() {
+        return MailConfigurationUtils.classicMailSender(minimalProperties, null);
+    }
+
+    @Benchmark
+    public JavaMailSenderImpl detailedSender() {
+        return MailConfigurationUtils.classicMailSender(detailedProperties, null);
+    }
+
+    @Benchmark
+    public Object detailedSenderWithSession() {
+        // The session is created lazily on first access
+        return MailConfigurationUtils.classicMailSender(detailedProperties, null).getSession();
+    }
+}
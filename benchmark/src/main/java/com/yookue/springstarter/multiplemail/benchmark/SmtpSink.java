@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.benchmark;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+
+/**
+ * Embedded SMTP server that accepts and discards all the messages, as a local stand-in of mail servers
+ * <p>
+ * It advertises {@code PIPELINING} and {@code CHUNKING}, and could delay each reply to simulate the round trip time of a remote server.
+ * The replies of pipelined commands are delayed only once, as a real server would behave.
+ *
+ * @author David Hsing
+ */
+@SuppressWarnings("unused")
+public class SmtpSink implements AutoCloseable {
+    private final ServerSocket server;
+    private final long latencyNanos;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a sink that replies without delay
+     *
+     * @throws IOException if the server socket could not be bound
+     */
+    public SmtpSink() throws IOException {
+        this(null);
+    }
+
+    /**
+     * Constructs a sink
+     *
+     * @param latency the delay before each reply, null or non-positive means no delay
+     *
+     * @throws IOException if the server socket could not be bound
+     */
+    public SmtpSink(@Nullable Duration latency) throws IOException {
+        this.server = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        this.latencyNanos = (latency == null || latency.isNegative()) ? 0L : latency.toNanos();
+        Thread acceptor = new Thread(this::acceptConnections, "smtp-sink-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return server.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.incrementAndGet();
+                Thread handler = new Thread(() -> handleConnection(socket), "smtp-sink-session");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException ignored) {
+                return;
+            }
+        }
+    }
+
+    private void handleConnection(@Nonnull Socket socket) {
+        try (socket) {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            reply(input, output, "220 smtp-sink ESMTP");
+            String line;
+            while ((line = readLine(input)) != null) {
+                String command = line.toUpperCase(Locale.ROOT);
+                if (command.startsWith("EHLO")) {
+                    reply(input, output, "250-smtp-sink\r\n250-PIPELINING\r\n250-CHUNKING\r\n250-8BITMIME\r\n250 SIZE 0");
+                } else if (command.startsWith("DATA")) {
+                    reply(input, output, "354 End data with <CR><LF>.<CR><LF>");
+                    while ((line = readLine(input)) != null && !line.equals(".")) {
+                        // discard the content
+                    }
+                    messages.incrementAndGet();
+                    reply(input, output, "250 OK");
+                } else if (command.startsWith("BDAT")) {
+                    String[] tokens = command.trim().split("\\s+");
+                    long size = Long.parseLong(tokens[1]);
+                    input.skipNBytes(size);
+                    if (tokens.length > 2 && tokens[2].equals("LAST")) {
+                        messages.incrementAndGet();
+                    }
+                    reply(input, output, "250 OK");
+                } else if (command.startsWith("QUIT")) {
+                    reply(null, output, "221 Bye");
+                    return;
+                } else {
+                    reply(input, output, "250 OK");
+                }
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void reply(@Nullable InputStream input, @Nonnull OutputStream output, @Nonnull String text) throws IOException {
+        output.write(text.getBytes(StandardCharsets.US_ASCII));
+        output.write('\r');
+        output.write('\n');
+        // Replies of pipelined commands are flushed together once the client is waiting
+        if (input == null || input.available() == 0) {
+            if (latencyNanos > 0L) {
+                sleepNanos(latencyNanos);
+            }
+            output.flush();
+        }
+    }
+
+    @Nullable
+    private static String readLine(@Nonnull InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        int current;
+        while ((current = input.read()) >= 0) {
+            if (current == '\n') {
+                int size = buffer.size();
+                byte[] bytes = buffer.toByteArray();
+                return new String(bytes, 0, (size > 0 && bytes[size - 1] == '\r') ? size - 1 : size, StandardCharsets.US_ASCII);
+            }
+            buffer.write(current);
+        }
+        return buffer.size() > 0 ? buffer.toString(StandardCharsets.US_ASCII) : null;
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.config;
+
+
+import jakarta.activation.MimeType;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.mail.MailSender;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.support.MailComposer;
+
+
+/**
+ * Configuration for mail composer
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailComposer
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = MultipleMailProperties.PROPERTIES_PREFIX, name = "enabled", havingValue = "true", matchIfMissing = true)
+@ConditionalOnClass(value = {MimeMessage.class, MimeType.class, MailSender.class})
+@EnableConfigurationProperties(value = MultipleMailProperties.class)
+public class MailComposerConfiguration {
+    public static final String PROPERTIES_PREFIX = "spring.multiple-mail.composer";    // $NON-NLS-1$
+    public static final String MAIL_COMPOSER = "multipleMailComposer";    // $NON-NLS-1$
+
+    @Bean(name = MAIL_COMPOSER)
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "enabled", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnMissingBean(name = MAIL_COMPOSER)
+    public MailComposer mailComposer(@Nonnull ResourceLoader resourceLoader, @Nonnull MultipleMailProperties properties) {
+        return new MailComposer(resourceLoader, properties.getComposer());
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.config;
+
+
+import jakarta.activation.MimeType;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mail.MailSender;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.support.MailIdempotencyPostProcessor;
+import com.yookue.springstarter.multiplemail.support.MailIdempotencyStore;
+
+
+/**
+ * Configuration for idempotency store of mail senders
+ * <p>
+ * The idempotency guards are built with the senders, this configuration only attaches the {@link com.yookue.springstarter.multiplemail.support.MailIdempotencyStore} bean to them.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailIdempotencyPostProcessor
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = MultipleMailProperties.PROPERTIES_PREFIX, name = "enabled", havingValue = "true", matchIfMissing = true)
+@ConditionalOnClass(value = {MimeMessage.class, MimeType.class, MailSender.class})
+public class MailIdempotencyConfiguration {
+    public static final String IDEMPOTENCY_POST_PROCESSOR = "multipleMailIdempotencyPostProcessor";    // $NON-NLS-1$
+
+    @Bean(name = IDEMPOTENCY_POST_PROCESSOR)
+    @ConditionalOnMissingBean(name = IDEMPOTENCY_POST_PROCESSOR)
+    public static MailIdempotencyPostProcessor mailIdempotencyPostProcessor(@Nonnull ObjectProvider<MailIdempotencyStore> idempotencyStore) {
+        return new MailIdempotencyPostProcessor(idempotencyStore);
+    }
+}
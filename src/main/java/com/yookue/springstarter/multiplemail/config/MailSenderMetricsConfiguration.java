@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.config;
+
+
+import jakarta.activation.MimeType;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.mail.MailSender;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.support.MailSenderMetricsPostProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+
+/**
+ * Configuration for metrics of mail senders
+ * <p>
+ * The post processor is registered before any sender, so the properties are bound from the environment directly.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailSenderMetricsPostProcessor
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = MultipleMailProperties.PROPERTIES_PREFIX, name = "enabled", havingValue = "true", matchIfMissing = true)
+@ConditionalOnClass(value = {MimeMessage.class, MimeType.class, MailSender.class, MeterRegistry.class})
+public class MailSenderMetricsConfiguration {
+    public static final String PROPERTIES_PREFIX = "spring.multiple-mail.metrics";    // $NON-NLS-1$
+    public static final String METRICS_POST_PROCESSOR = "multipleMailSenderMetricsPostProcessor";    // $NON-NLS-1$
+
+    @Bean(name = METRICS_POST_PROCESSOR)
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "enabled", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnMissingBean(name = METRICS_POST_PROCESSOR)
+    public static MailSenderMetricsPostProcessor mailSenderMetricsPostProcessor(@Nonnull Environment environment, @Nonnull ObjectProvider<MeterRegistry> meterRegistry, @Nonnull ObjectProvider<ObservationRegistry> observationRegistry) {
+        MultipleMailProperties.Metrics properties = Binder.get(environment).bind(PROPERTIES_PREFIX, MultipleMailProperties.Metrics.class).orElseGet(MultipleMailProperties.Metrics::new);
+        return new MailSenderMetricsPostProcessor(meterRegistry, observationRegistry, properties);
+    }
+}
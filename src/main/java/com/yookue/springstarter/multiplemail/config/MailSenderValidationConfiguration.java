@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.config;
+
+
+import jakarta.activation.MimeType;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.annotation.Order;
+import org.springframework.mail.MailSender;
+import com.yookue.commonplexus.springcondition.annotation.ConditionalOnAnyProperties;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.support.MailSenderValidationHealthIndicator;
+import com.yookue.springstarter.multiplemail.support.MailSenderValidator;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * Configuration for validating the connections of mail senders in parallel or deferred mode
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailSenderValidator
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = MultipleMailProperties.PROPERTIES_PREFIX, name = "enabled", havingValue = "true", matchIfMissing = true)
+@ConditionalOnClass(value = {MimeMessage.class, MimeType.class, MailSender.class})
+@AutoConfigureAfter(value = {SenaryMailSenderConfiguration.class, MailSenderRegistryConfiguration.class})
+@EnableConfigurationProperties(value = MultipleMailProperties.class)
+@Import(value = {MailSenderValidationConfiguration.Entry.class, MailSenderValidationConfiguration.Parallel.class, MailSenderValidationConfiguration.Deferred.class, MailSenderValidationConfiguration.Health.class})
+public class MailSenderValidationConfiguration {
+    public static final String PROPERTIES_PREFIX = "spring.multiple-mail.validation";    // $NON-NLS-1$
+    public static final String MAIL_VALIDATOR = "multipleMailSenderValidator";    // $NON-NLS-1$
+    public static final String HEALTH_INDICATOR = "multipleMailValidationHealthIndicator";    // $NON-NLS-1$
+
+
+    /**
+     * Mail sender validator entry
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnAnyProperties(value = {
+        @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "mode", havingValue = "parallel"),
+        @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "mode", havingValue = "deferred")
+    })
+    @Order(value = 0)
+    static class Entry {
+        @Bean(name = MAIL_VALIDATOR)
+        @ConditionalOnMissingBean(name = MAIL_VALIDATOR)
+        public MailSenderValidator mailSenderValidator(@Nonnull ListableBeanFactory beanFactory, @Nonnull MultipleMailProperties properties) {
+            return new MailSenderValidator(MailSenderUtils.getTestableMailSenders(beanFactory), properties.getValidation().getTimeout());
+        }
+    }
+
+
+    /**
+     * Mail sender validator of parallel mode
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "mode", havingValue = "parallel")
+    @ConditionalOnBean(name = MAIL_VALIDATOR)
+    @Order(value = 1)
+    static class Parallel implements InitializingBean {
+        @Autowired
+        @Qualifier(value = MAIL_VALIDATOR)
+        private MailSenderValidator validator;
+
+        @Override
+        public void afterPropertiesSet() throws IllegalStateException {
+            validator.validate();
+        }
+    }
+
+
+    /**
+     * Mail sender validator of deferred mode
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "mode", havingValue = "deferred")
+    @ConditionalOnBean(name = MAIL_VALIDATOR)
+    @Order(value = 2)
+    static class Deferred implements ApplicationListener<ApplicationReadyEvent> {
+        @Autowired
+        @Qualifier(value = MAIL_VALIDATOR)
+        private MailSenderValidator validator;
+
+        @Override
+        public void onApplicationEvent(@Nonnull ApplicationReadyEvent event) {
+            validator.validateAsync();
+        }
+    }
+
+
+    /**
+     * Mail sender validator health indicator
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnClass(value = AbstractHealthIndicator.class)
+    @ConditionalOnBean(name = MAIL_VALIDATOR)
+    @Order(value = 3)
+    static class Health {
+        @Bean(name = HEALTH_INDICATOR)
+        @ConditionalOnMissingBean(name = HEALTH_INDICATOR)
+        public MailSenderValidationHealthIndicator healthIndicator(@Qualifier(value = MAIL_VALIDATOR) @Nonnull MailSenderValidator validator) {
+            return new MailSenderValidationHealthIndicator(validator);
+        }
+    }
+}
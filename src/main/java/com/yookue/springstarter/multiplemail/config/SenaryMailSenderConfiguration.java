@@ -41,10 +41,23 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
 import org.springframework.mail.MailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 import com.yookue.commonplexus.springcondition.annotation.ConditionalOnAnyProperties;
 import com.yookue.commonplexus.springcondition.annotation.ConditionalOnMissingProperty;
+import com.yookue.springstarter.multiplemail.enumeration.MailValidationMode;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.support.AsyncMailSender;
+import com.yookue.springstarter.multiplemail.support.BatchMailSender;
+import com.yookue.springstarter.multiplemail.support.FanOutMailSender;
+import com.yookue.springstarter.multiplemail.support.LazyMailSender;
+import com.yookue.springstarter.multiplemail.support.MailOutbox;
+import com.yookue.springstarter.multiplemail.support.PriorityMailSender;
+import com.yookue.springstarter.multiplemail.support.ReactiveMailSender;
+import com.yookue.springstarter.multiplemail.support.RetryingMailSender;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import reactor.core.publisher.Flux;
 
 
 /**
@@ -61,12 +74,20 @@ import com.yookue.commonplexus.springcondition.annotation.ConditionalOnMissingPr
 @ConditionalOnClass(value = {MimeMessage.class, MimeType.class, MailSender.class})
 @AutoConfigureAfter(value = QuinaryMailSenderConfiguration.class)
 @AutoConfigureBefore(value = MailSenderAutoConfiguration.class)
-@Import(value = {SenaryMailSenderConfiguration.Entry.class, SenaryMailSenderConfiguration.Jndi.class, SenaryMailSenderConfiguration.Classic.class, SenaryMailSenderConfiguration.Validator.class})
+@Import(value = {SenaryMailSenderConfiguration.Entry.class, SenaryMailSenderConfiguration.Lazy.class, SenaryMailSenderConfiguration.Jndi.class, SenaryMailSenderConfiguration.Classic.class, SenaryMailSenderConfiguration.Validator.class, SenaryMailSenderConfiguration.Async.class, SenaryMailSenderConfiguration.Batch.class, SenaryMailSenderConfiguration.Outbox.class, SenaryMailSenderConfiguration.Reactive.class, SenaryMailSenderConfiguration.Priority.class, SenaryMailSenderConfiguration.Retrying.class, SenaryMailSenderConfiguration.FanOut.class})
 public class SenaryMailSenderConfiguration {
     public static final String PROPERTIES_PREFIX = "spring.multiple-mail.senary";    // $NON-NLS-1$
     public static final String MAIL_PROPERTIES = "senaryMailProperties";    // $NON-NLS-1$
+    public static final String SENDER_PROPERTIES = "senaryMailSenderProperties";    // $NON-NLS-1$
     public static final String MAIL_SESSION = "senaryMailSession";    // $NON-NLS-1$
     public static final String MAIL_SENDER = "senaryMailSender";    // $NON-NLS-1$
+    public static final String ASYNC_SENDER = "senaryAsyncMailSender";    // $NON-NLS-1$
+    public static final String BATCH_SENDER = "senaryBatchMailSender";    // $NON-NLS-1$
+    public static final String MAIL_OUTBOX = "senaryMailOutbox";    // $NON-NLS-1$
+    public static final String REACTIVE_SENDER = "senaryReactiveMailSender";    // $NON-NLS-1$
+    public static final String PRIORITY_SENDER = "senaryPriorityMailSender";    // $NON-NLS-1$
+    public static final String RETRYING_SENDER = "senaryRetryingMailSender";    // $NON-NLS-1$
+    public static final String FAN_OUT_SENDER = "senaryFanOutMailSender";    // $NON-NLS-1$
     public static final String SSL_BUNDLES = "senaryMailSslBundles";    // $NON-NLS-1$
 
 
@@ -83,6 +104,31 @@ public class SenaryMailSenderConfiguration {
         public MailProperties mailProperties() {
             return new MailProperties();
         }
+
+        @Bean(name = SENDER_PROPERTIES)
+        @ConditionalOnMissingBean(name = SENDER_PROPERTIES)
+        @ConfigurationProperties(prefix = PROPERTIES_PREFIX)
+        public MailSenderProperties senderProperties() {
+            return new MailSenderProperties();
+        }
+    }
+
+
+    /**
+     * Mail sender of lazy initialization
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "lazy", havingValue = "true")
+    @ConditionalOnBean(name = MAIL_PROPERTIES, value = MailProperties.class)
+    @Order(value = 1)
+    static class Lazy {
+        @Bean(name = MAIL_SENDER)
+        @ConditionalOnMissingBean(name = MAIL_SENDER)
+        @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+        public JavaMailSenderImpl mailSender(@Qualifier(value = MAIL_PROPERTIES) @Nonnull MailProperties properties, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties senderProperties, @Qualifier(value = SSL_BUNDLES) @Nullable SslBundles bundles) {
+            return new LazyMailSender(MAIL_SENDER, () -> MailSenderUtils.buildMailSender(MAIL_SENDER, properties, senderProperties, bundles));
+        }
     }
 
 
@@ -94,9 +140,10 @@ public class SenaryMailSenderConfiguration {
     @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "jndi-name")
     @ConditionalOnClass(value = Session.class)
     @ConditionalOnBean(name = MAIL_PROPERTIES, value = MailProperties.class)
-    @Order(value = 1)
+    @Order(value = 2)
     static class Jndi {
         @Bean(name = MAIL_SESSION)
+        @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "lazy", havingValue = "false", matchIfMissing = true)
         @ConditionalOnMissingBean(name = MAIL_SESSION)
         public Session mailSession(@Qualifier(value = MAIL_PROPERTIES) @Nonnull MailProperties properties) throws IllegalStateException {
             return MailConfigurationUtils.jndiMailSession(properties);
@@ -105,8 +152,8 @@ public class SenaryMailSenderConfiguration {
         @Bean(name = MAIL_SENDER)
         @ConditionalOnBean(name = MAIL_SESSION)
         @ConditionalOnMissingBean(name = MAIL_SENDER)
-        public JavaMailSenderImpl mailSender(@Qualifier(value = MAIL_PROPERTIES) @Nonnull MailProperties properties, @Qualifier(value = MAIL_SESSION) @Nonnull Session session) {
-            return MailConfigurationUtils.jndiMailSender(properties, session);
+        public JavaMailSenderImpl mailSender(@Qualifier(value = MAIL_PROPERTIES) @Nonnull MailProperties properties, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties senderProperties, @Qualifier(value = MAIL_SESSION) @Nonnull Session session) {
+            return MailSenderUtils.decorateMailSender(MAIL_SENDER, MailConfigurationUtils.jndiMailSender(properties, session), senderProperties);
         }
     }
 
@@ -118,13 +165,13 @@ public class SenaryMailSenderConfiguration {
      */
     @ConditionalOnMissingProperty(prefix = PROPERTIES_PREFIX, name = "jndi-name")
     @ConditionalOnBean(name = MAIL_PROPERTIES, value = MailProperties.class)
-    @Order(value = 2)
+    @Order(value = 3)
     static class Classic {
         @Bean(name = MAIL_SENDER)
         @ConditionalOnMissingBean(name = MAIL_SENDER)
         @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
-        public JavaMailSenderImpl mailSender(@Qualifier(value = MAIL_PROPERTIES) @Nonnull MailProperties properties, @Qualifier(value = SSL_BUNDLES) @Nullable SslBundles bundles) {
-            return MailConfigurationUtils.classicMailSender(properties, bundles);
+        public JavaMailSenderImpl mailSender(@Qualifier(value = MAIL_PROPERTIES) @Nonnull MailProperties properties, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties senderProperties, @Qualifier(value = SSL_BUNDLES) @Nullable SslBundles bundles) {
+            return MailSenderUtils.decorateMailSender(MAIL_SENDER, MailConfigurationUtils.classicMailSender(properties, bundles), senderProperties);
         }
     }
 
@@ -136,15 +183,142 @@ public class SenaryMailSenderConfiguration {
      */
     @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, value = "test-connection")
     @ConditionalOnBean(name = MAIL_SENDER)
-    @Order(value = 3)
+    @Order(value = 4)
     static class Validator implements InitializingBean {
         @Autowired
         @Qualifier(value = MAIL_SENDER)
         private JavaMailSenderImpl mailSender;
 
+        @Autowired
+        private Environment environment;
+
         @Override
         public void afterPropertiesSet() throws IllegalStateException {
-            new MailSenderValidatorAutoConfiguration(mailSender);
+            // Parallel and deferred modes are handled by MailSenderValidationConfiguration
+            MailValidationMode mode = environment.getProperty(MailSenderValidationConfiguration.PROPERTIES_PREFIX + ".mode", MailValidationMode.class, MailValidationMode.SEQUENTIAL);
+            if (mode == MailValidationMode.SEQUENTIAL) {
+                new MailSenderValidatorAutoConfiguration(mailSender);
+            }
+        }
+    }
+
+
+    /**
+     * Mail sender of async
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "async.enabled", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 5)
+    static class Async {
+        @Bean(name = ASYNC_SENDER)
+        @ConditionalOnMissingBean(name = ASYNC_SENDER)
+        public AsyncMailSender asyncMailSender(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new AsyncMailSender(ASYNC_SENDER, mailSender, properties.getAsync());
+        }
+    }
+
+
+    /**
+     * Mail sender of batch
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "batch.enabled", havingValue = "true")
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 6)
+    static class Batch {
+        @Bean(name = BATCH_SENDER)
+        @ConditionalOnMissingBean(name = BATCH_SENDER)
+        public BatchMailSender batchMailSender(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new BatchMailSender(BATCH_SENDER, mailSender, properties.getBatch());
+        }
+    }
+
+
+    /**
+     * Mail sender of durable outbox
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "outbox.enabled", havingValue = "true")
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 7)
+    static class Outbox {
+        @Bean(name = MAIL_OUTBOX)
+        @ConditionalOnMissingBean(name = MAIL_OUTBOX)
+        public MailOutbox mailOutbox(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new MailOutbox(MAIL_OUTBOX, mailSender, properties.getOutbox());
+        }
+    }
+
+
+    /**
+     * Mail sender of reactive
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "reactive.enabled", havingValue = "true", matchIfMissing = true)
+    @ConditionalOnClass(value = Flux.class)
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 8)
+    static class Reactive {
+        @Bean(name = REACTIVE_SENDER)
+        @ConditionalOnMissingBean(name = REACTIVE_SENDER)
+        public ReactiveMailSender reactiveMailSender(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new ReactiveMailSender(REACTIVE_SENDER, mailSender, properties.getReactive());
+        }
+    }
+
+
+    /**
+     * Mail sender of priority
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "priority.enabled", havingValue = "true")
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 9)
+    static class Priority {
+        @Bean(name = PRIORITY_SENDER)
+        @ConditionalOnMissingBean(name = PRIORITY_SENDER)
+        public PriorityMailSender priorityMailSender(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new PriorityMailSender(PRIORITY_SENDER, mailSender, properties.getPriority());
+        }
+    }
+
+
+    /**
+     * Mail sender of retrying
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "retry.enabled", havingValue = "true")
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 10)
+    static class Retrying {
+        @Bean(name = RETRYING_SENDER)
+        @ConditionalOnMissingBean(name = RETRYING_SENDER)
+        public RetryingMailSender retryingMailSender(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new RetryingMailSender(RETRYING_SENDER, mailSender, properties.getRetry());
+        }
+    }
+
+
+    /**
+     * Mail sender of fan-out
+     *
+     * @author David Hsing
+     */
+    @ConditionalOnProperty(prefix = PROPERTIES_PREFIX, name = "fan-out.enabled", havingValue = "true")
+    @ConditionalOnBean(name = MAIL_SENDER)
+    @Order(value = 11)
+    static class FanOut {
+        @Bean(name = FAN_OUT_SENDER)
+        @ConditionalOnMissingBean(name = FAN_OUT_SENDER)
+        public FanOutMailSender fanOutMailSender(@Qualifier(value = MAIL_SENDER) @Nonnull JavaMailSenderImpl mailSender, @Qualifier(value = SENDER_PROPERTIES) @Nonnull MailSenderProperties properties) {
+            return new FanOutMailSender(FAN_OUT_SENDER, mailSender, properties.getFanOut());
         }
     }
 }
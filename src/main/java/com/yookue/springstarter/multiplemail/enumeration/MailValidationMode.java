@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.enumeration;
+
+
+/**
+ * Enumerations of mail sender connection validation mode
+ *
+ * @author David Hsing
+ */
+@SuppressWarnings("unused")
+public enum MailValidationMode {
+    /**
+     * Tests the connections one after another, while the context refreshes
+     */
+    SEQUENTIAL,
+
+    /**
+     * Tests the connections at the same time, while the context refreshes
+     */
+    PARALLEL,
+
+    /**
+     * Tests the connections at the same time, after the application is ready
+     */
+    DEFERRED
+}
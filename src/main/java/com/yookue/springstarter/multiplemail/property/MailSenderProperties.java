@@ -0,0 +1,704 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.property;
+
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Duration;
+import org.springframework.util.unit.DataSize;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+
+/**
+ * Extra properties for each mail sender, bound with the same prefix of {@link org.springframework.boot.autoconfigure.mail.MailProperties}
+ *
+ * @author David Hsing
+ */
+@Getter
+@Setter
+@ToString
+public class MailSenderProperties implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Indicates whether to test the connection of the sender on startup or not, same as {@code test-connection} of spring boot
+     * <p>
+     * Default is {@code false}
+     */
+    private Boolean testConnection = false;
+
+    /**
+     * Indicates whether to build the sender and its session on first use or not, instead of on startup
+     * <p>
+     * Default is {@code false}
+     */
+    private Boolean lazy = false;
+
+    /**
+     * Transport pool attributes
+     */
+    private final Pool pool = new Pool();
+
+    /**
+     * ESMTP extension attributes
+     */
+    private final Esmtp esmtp = new Esmtp();
+
+    /**
+     * Rate limit attributes
+     */
+    private final RateLimit rateLimit = new RateLimit();
+
+    /**
+     * Idempotency guard attributes
+     */
+    private final Idempotency idempotency = new Idempotency();
+
+    /**
+     * Async sender attributes
+     */
+    private final Async async = new Async();
+
+    /**
+     * Batch sender attributes
+     */
+    private final Batch batch = new Batch();
+
+    /**
+     * Durable outbox attributes
+     */
+    private final Outbox outbox = new Outbox();
+
+    /**
+     * Reactive sender attributes
+     */
+    private final Reactive reactive = new Reactive();
+
+    /**
+     * Priority sender attributes
+     */
+    private final Priority priority = new Priority();
+
+    /**
+     * Retrying sender attributes
+     */
+    private final Retry retry = new Retry();
+
+    /**
+     * Fan-out sender attributes
+     */
+    private final FanOut fanOut = new FanOut();
+
+
+    /**
+     * Properties for transport pool
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Pool implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to reuse connected transports or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The maximum number of transports, either borrowed or idle
+         * <p>
+         * Default is {@code 8}
+         */
+        private Integer maxSize = 8;
+
+        /**
+         * The maximum duration to wait for a transport when the pool is exhausted
+         * <p>
+         * Default is {@code 10s}
+         */
+        private Duration maxWait = Duration.ofSeconds(10L);
+
+        /**
+         * The duration that an idle transport could stay in the pool before being evicted
+         * <p>
+         * Default is {@code 60s}
+         */
+        private Duration idleTimeout = Duration.ofSeconds(60L);
+
+        /**
+         * The interval of evicting idle transports, non-positive means evicting on borrowing only
+         * <p>
+         * Default is {@code 30s}
+         */
+        private Duration evictionInterval = Duration.ofSeconds(30L);
+
+        /**
+         * The maximum number of messages that a transport could send before being closed, non-positive means unlimited
+         * <p>
+         * Default is {@code 100}
+         */
+        private Integer maxMessages = 100;
+
+        /**
+         * Indicates whether to validate the transport with {@code NOOP} command on borrowing or not
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean validateOnBorrow = true;
+    }
+
+
+    /**
+     * Properties for ESMTP extensions
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Esmtp implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to send {@code MAIL FROM} and all {@code RCPT TO} commands in one round trip, when the server advertises {@code PIPELINING}
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean pipelining = false;
+
+        /**
+         * Indicates whether to send the content by {@code BDAT} commands instead of {@code DATA}, when the server advertises {@code CHUNKING}
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean chunking = false;
+
+        /**
+         * The size of each {@code BDAT} chunk, each chunk waits for its own reply
+         * <p>
+         * Default is {@code 256KB}
+         */
+        private DataSize chunkSize = DataSize.ofKilobytes(256L);
+    }
+
+
+    /**
+     * Properties for rate limit
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class RateLimit implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to limit the sending rate or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The number of messages that could be sent in each period
+         * <p>
+         * Default is {@code 60}
+         */
+        private Integer permits = 60;
+
+        /**
+         * The period of refilling the permits
+         * <p>
+         * Default is {@code 1m}
+         */
+        private Duration period = Duration.ofMinutes(1L);
+
+        /**
+         * The maximum number of messages that could be sent in a burst, non-positive means same as {@code permits}
+         */
+        private Integer burst;
+
+        /**
+         * The maximum duration to wait for permits, exceeding means rejecting at once, zero means never waiting
+         * <p>
+         * Default is {@code 5s}
+         */
+        private Duration maxWait = Duration.ofSeconds(5L);
+    }
+
+
+    /**
+     * Properties for idempotency guard
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Idempotency implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to drop the messages whose idempotency keys have been sent or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The header that carries the idempotency key supplied by the caller
+         * <p>
+         * Default is {@code X-Idempotency-Key}
+         */
+        private String keyHeader = "X-Idempotency-Key";
+
+        /**
+         * Indicates whether to use the {@code Message-ID} header set by the caller as the key, when the key header is absent or not
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean messageId = true;
+
+        /**
+         * The maximum number of keys in the cache, the earliest ones are evicted
+         * <p>
+         * Default is {@code 100000}
+         */
+        private Integer maxSize = 100000;
+
+        /**
+         * The duration that a key is kept since sending its message
+         * <p>
+         * Default is {@code 24h}
+         */
+        private Duration ttl = Duration.ofHours(24L);
+    }
+
+
+    /**
+     * Properties for async sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Async implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register an async sender or not
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean enabled = true;
+
+        /**
+         * The maximum number of concurrent SMTP sessions of the async sender
+         * <p>
+         * Default is {@code 8}
+         */
+        private Integer maxInFlight = 8;
+
+        /**
+         * Indicates whether to run on virtual threads or not, requires jdk 21+
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean virtualThreads = true;
+    }
+
+
+    /**
+     * Properties for batch sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Batch implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a batch sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The maximum number of messages in a batch
+         * <p>
+         * Default is {@code 50}
+         */
+        private Integer maxSize = 50;
+
+        /**
+         * The maximum duration to wait for more messages since the first message of a batch arrived
+         * <p>
+         * Default is {@code 100ms}
+         */
+        private Duration window = Duration.ofMillis(100L);
+
+        /**
+         * The maximum number of messages waiting for the next batches
+         * <p>
+         * Default is {@code 10000}
+         */
+        private Integer queueCapacity = 10000;
+
+        /**
+         * The maximum duration to wait for a free slot when the queue is full
+         * <p>
+         * Default is {@code 10s}
+         */
+        private Duration offerTimeout = Duration.ofSeconds(10L);
+
+        /**
+         * The maximum number of batches that sending at the same time
+         * <p>
+         * Default is {@code 2}
+         */
+        private Integer concurrency = 2;
+    }
+
+
+    /**
+     * Properties for durable outbox
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Outbox implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a durable outbox or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The directory of the journal files, required when the outbox is enabled, should be persistent rather than temporary
+         */
+        private String directory;
+
+        /**
+         * The size of a journal segment to roll over
+         * <p>
+         * Default is {@code 64MB}
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64L);
+
+        /**
+         * The number of background workers that send the messages
+         * <p>
+         * Default is {@code 2}
+         */
+        private Integer workers = 2;
+
+        /**
+         * The maximum number of attempts of sending a message, before moving it to the dead letter directory
+         * <p>
+         * Default is {@code 5}
+         */
+        private Integer maxAttempts = 5;
+
+        /**
+         * The delay before the first retry, doubled on each retry
+         * <p>
+         * Default is {@code 5s}
+         */
+        private Duration retryDelay = Duration.ofSeconds(5L);
+    }
+
+
+    /**
+     * Properties for reactive sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Reactive implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a reactive sender when reactor is present or not
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean enabled = true;
+
+        /**
+         * The maximum number of messages that sending at the same time, also the number of threads of the dedicated scheduler
+         * <p>
+         * Default is {@code 8}
+         */
+        private Integer concurrency = 8;
+
+        /**
+         * The maximum number of sendings that waiting for the threads of the dedicated scheduler
+         * <p>
+         * Default is {@code 10000}
+         */
+        private Integer queueCapacity = 10000;
+    }
+
+
+    /**
+     * Properties for priority sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Priority implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a priority sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The maximum number of messages that sending at the same time, across all the priorities
+         * <p>
+         * Default is {@code 8}
+         */
+        private Integer concurrency = 8;
+
+        /**
+         * Indicates whether to run on virtual threads or not, requires jdk 21+
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean virtualThreads = true;
+
+        /**
+         * Attributes of the messages with high priority
+         */
+        private final Lane high = new Lane(8, 8, 1000);
+
+        /**
+         * Attributes of the messages with normal priority
+         */
+        private final Lane normal = new Lane(4, 6, 10000);
+
+        /**
+         * Attributes of the messages with low priority
+         */
+        private final Lane low = new Lane(1, 4, 100000);
+    }
+
+
+    /**
+     * Properties for a priority of priority sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Lane implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The share of the free concurrency that the priority gets, when several priorities are waiting
+         */
+        private Integer weight;
+
+        /**
+         * The maximum number of messages of the priority that sending at the same time, keeps the rest concurrency for the other priorities
+         */
+        private Integer maxInFlight;
+
+        /**
+         * The maximum number of messages of the priority that waiting for sending
+         */
+        private Integer queueCapacity;
+
+        public Lane() {
+        }
+
+        public Lane(int weight, int maxInFlight, int queueCapacity) {
+            this.weight = weight;
+            this.maxInFlight = maxInFlight;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+
+    /**
+     * Properties for retrying sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Retry implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a retrying sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The maximum number of attempts of sending a message, including the first one
+         * <p>
+         * Default is {@code 5}
+         */
+        private Integer maxAttempts = 5;
+
+        /**
+         * The delay before the first retry
+         * <p>
+         * Default is {@code 1s}
+         */
+        private Duration initialDelay = Duration.ofSeconds(1L);
+
+        /**
+         * The maximum delay between two attempts
+         * <p>
+         * Default is {@code 5m}
+         */
+        private Duration maxDelay = Duration.ofMinutes(5L);
+
+        /**
+         * The multiplier of the delay on each retry
+         * <p>
+         * Default is {@code 2.0}
+         */
+        private Float multiplier = 2F;
+
+        /**
+         * The fraction of the delay that is randomized, {@code 0} means no jitter, {@code 1} means full jitter
+         * <p>
+         * Default is {@code 0.5}
+         */
+        private Float jitter = 0.5F;
+
+        /**
+         * The maximum number of attempts that sending at the same time, including the first ones
+         * <p>
+         * Default is {@code 8}
+         */
+        private Integer concurrency = 8;
+
+        /**
+         * The maximum number of retries that sending at the same time, the others are postponed
+         * <p>
+         * Default is {@code 2}
+         */
+        private Integer retryConcurrency = 2;
+
+        /**
+         * The maximum number of messages that waiting for retries, exceeding means failing at once
+         * <p>
+         * Default is {@code 10000}
+         */
+        private Integer maxPending = 10000;
+
+        /**
+         * The tick of the timer wheel, also the precision of the delays
+         * <p>
+         * Default is {@code 100ms}
+         */
+        private Duration tickDuration = Duration.ofMillis(100L);
+
+        /**
+         * Indicates whether to run on virtual threads or not, requires jdk 21+
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean virtualThreads = true;
+    }
+
+
+    /**
+     * Properties for fan-out sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class FanOut implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a fan-out sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The maximum number of recipients of each envelope, should not exceed the RCPT limit of the relay
+         * <p>
+         * Default is {@code 100}
+         */
+        private Integer chunkSize = 100;
+
+        /**
+         * The maximum number of envelopes that sending at the same time, each over its own connection
+         * <p>
+         * Default is {@code 4}
+         */
+        private Integer concurrency = 4;
+
+        /**
+         * Indicates whether to run on virtual threads or not, requires jdk 21+
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean virtualThreads = true;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.property;
+
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import com.yookue.springstarter.multiplemail.enumeration.MailBalanceStrategy;
+import com.yookue.springstarter.multiplemail.enumeration.MailValidationMode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+
+/**
+ * Properties for multiple mail
+ *
+ * @author David Hsing
+ */
+@ConfigurationProperties(prefix = MultipleMailProperties.PROPERTIES_PREFIX)
+@Getter
+@Setter
+@ToString
+public class MultipleMailProperties implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public static final String PROPERTIES_PREFIX = "spring.multiple-mail";    // $NON-NLS-1$
+
+    /**
+     * Indicates whether to enable this starter or not
+     * <p>
+     * Default is {@code true}
+     */
+    private Boolean enabled = true;
+
+    /**
+     * Connection validation attributes
+     */
+    private final Validation validation = new Validation();
+
+    /**
+     * Load balancing sender attributes
+     */
+    private final Balancer balancer = new Balancer();
+
+    /**
+     * Failover sender attributes
+     */
+    private final Failover failover = new Failover();
+
+    /**
+     * Routing sender attributes
+     */
+    private final Router router = new Router();
+
+    /**
+     * Hedging sender attributes
+     */
+    private final Hedging hedging = new Hedging();
+
+    /**
+     * Metrics attributes
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Reload attributes
+     */
+    private final Reload reload = new Reload();
+
+    /**
+     * Mail composer attributes
+     */
+    private final Composer composer = new Composer();
+
+
+    /**
+     * Properties for connection validation
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Validation implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The mode of testing the connections of the senders that {@code test-connection} is {@code true}
+         * <p>
+         * Default is {@code sequential}
+         */
+        private MailValidationMode mode = MailValidationMode.SEQUENTIAL;
+
+        /**
+         * The maximum duration of testing the connection of each sender, in parallel or deferred mode
+         * <p>
+         * Default is {@code 10s}
+         */
+        private Duration timeout = Duration.ofSeconds(10L);
+    }
+
+
+    /**
+     * Properties for load balancing sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Balancer implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a load balancing sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The bean names of the member senders, such as {@code primaryMailSender}
+         */
+        private List<String> senders = new ArrayList<>();
+
+        /**
+         * The strategy of picking member senders
+         * <p>
+         * Default is {@code round-robin}
+         */
+        private MailBalanceStrategy strategy = MailBalanceStrategy.ROUND_ROBIN;
+
+        /**
+         * The weights of the member senders, keyed by bean names, for {@code weighted} strategy
+         * <p>
+         * Default weight is {@code 1}
+         */
+        private Map<String, Integer> weights = new LinkedHashMap<>();
+
+        /**
+         * The number of consecutive failures to mark a member sender as unavailable
+         * <p>
+         * Default is {@code 3}
+         */
+        private Integer failureThreshold = 3;
+
+        /**
+         * The duration that an unavailable member sender will be skipped
+         * <p>
+         * Default is {@code 30s}
+         */
+        private Duration recoveryInterval = Duration.ofSeconds(30L);
+    }
+
+
+    /**
+     * Properties for failover sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Failover implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a failover sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The bean names of the member senders in trying order, such as {@code primaryMailSender}
+         */
+        private List<String> senders = new ArrayList<>();
+
+        /**
+         * Circuit breaker attributes of each member sender
+         */
+        private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    }
+
+
+    /**
+     * Properties for routing sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Router implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a routing sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The bean name of the sender for the recipients that match no route
+         * <p>
+         * Default is {@code primaryMailSender}
+         */
+        private String defaultSender = "primaryMailSender";
+
+        /**
+         * The recipient domains of the senders, keyed by bean names, such as {@code secondaryMailSender: example.com, *.example.com}
+         */
+        private Map<String, List<String>> routes = new LinkedHashMap<>();
+    }
+
+
+    /**
+     * Properties for hedging sender
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Hedging implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a hedging sender or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The bean names of the member senders, the first one is tried at first, and the others are the hedges in order, such as {@code primaryMailSender}
+         */
+        private List<String> senders = new ArrayList<>();
+
+        /**
+         * The percentile of the recent durations of the first sender, waiting that long before sending by the next sender
+         * <p>
+         * Default is {@code 95}
+         */
+        private Float percentile = 95F;
+
+        /**
+         * The number of recent durations of the first sender to calculate the percentile
+         * <p>
+         * Default is {@code 100}
+         */
+        private Integer windowSize = 100;
+
+        /**
+         * The minimum number of recent durations before calculating the percentile, the initial delay is used before that
+         * <p>
+         * Default is {@code 20}
+         */
+        private Integer minimumSamples = 20;
+
+        /**
+         * The delay before sending by the next sender, when there are not enough recent durations
+         * <p>
+         * Default is {@code 500ms}
+         */
+        private Duration initialDelay = Duration.ofMillis(500L);
+
+        /**
+         * The minimum delay before sending by the next sender
+         * <p>
+         * Default is {@code 20ms}
+         */
+        private Duration minDelay = Duration.ofMillis(20L);
+
+        /**
+         * The maximum delay before sending by the next sender
+         * <p>
+         * Default is {@code 5s}
+         */
+        private Duration maxDelay = Duration.ofSeconds(5L);
+
+        /**
+         * The maximum number of hedges for each sending
+         * <p>
+         * Default is {@code 1}
+         */
+        private Integer maxHedges = 1;
+
+        /**
+         * The maximum number of attempts that sending at the same time
+         * <p>
+         * Default is {@code 16}
+         */
+        private Integer concurrency = 16;
+
+        /**
+         * Indicates whether to run on virtual threads or not, requires jdk 21+
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean virtualThreads = true;
+    }
+
+
+    /**
+     * Properties for circuit breaker
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class CircuitBreaker implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The number of recent calls to calculate the rates
+         * <p>
+         * Default is {@code 20}
+         */
+        private Integer windowSize = 20;
+
+        /**
+         * The minimum number of recent calls before calculating the rates
+         * <p>
+         * Default is {@code 5}
+         */
+        private Integer minimumCalls = 5;
+
+        /**
+         * The percentage of failed calls to open the breaker
+         * <p>
+         * Default is {@code 50}
+         */
+        private Float failureRateThreshold = 50F;
+
+        /**
+         * The duration that a call is considered slow, non-positive means never slow
+         * <p>
+         * Default is {@code 10s}
+         */
+        private Duration slowCallDuration = Duration.ofSeconds(10L);
+
+        /**
+         * The percentage of slow calls to open the breaker
+         * <p>
+         * Default is {@code 80}
+         */
+        private Float slowCallRateThreshold = 80F;
+
+        /**
+         * The duration that the breaker stays open before probing
+         * <p>
+         * Default is {@code 30s}
+         */
+        private Duration openDuration = Duration.ofSeconds(30L);
+
+        /**
+         * The number of probing calls in half-open state
+         * <p>
+         * Default is {@code 3}
+         */
+        private Integer halfOpenCalls = 3;
+    }
+
+
+    /**
+     * Properties for metrics
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Metrics implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to instrument the senders when a {@code MeterRegistry} is present or not
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean enabled = true;
+
+        /**
+         * Indicates whether to publish percentile histograms of the phase durations and message sizes or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean histogram = false;
+    }
+
+
+    /**
+     * Properties for reloading senders at runtime
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Reload implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether the senders could be reloaded at runtime or not
+         * <p>
+         * Default is {@code false}
+         */
+        private Boolean enabled = false;
+
+        /**
+         * The paths of the {@code properties} or {@code yml} files to watch, the changed files take precedence over other property sources
+         */
+        private List<String> watchFiles = new ArrayList<>();
+
+        /**
+         * The delay after the last change of the watched files, before reloading
+         * <p>
+         * Default is {@code 1s}
+         */
+        private Duration watchDelay = Duration.ofSeconds(1L);
+    }
+
+
+    /**
+     * Properties for mail composer
+     *
+     * @author David Hsing
+     */
+    @Getter
+    @Setter
+    @ToString
+    public static class Composer implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Indicates whether to register a mail composer or not
+         * <p>
+         * Default is {@code true}
+         */
+        private Boolean enabled = true;
+
+        /**
+         * The maximum number of compiled templates in the cache, the least recently used ones are evicted
+         * <p>
+         * Default is {@code 256}
+         */
+        private Integer templateCacheSize = 256;
+
+        /**
+         * The maximum number of pre-encoded static parts in the cache, the least recently used ones are evicted
+         * <p>
+         * Default is {@code 64}
+         */
+        private Integer partCacheSize = 64;
+
+        /**
+         * The charset of the templates and the rendered messages
+         * <p>
+         * Default is {@code UTF-8}
+         */
+        private Charset charset = StandardCharsets.UTF_8;
+    }
+}
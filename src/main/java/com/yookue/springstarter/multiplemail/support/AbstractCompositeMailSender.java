@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * Abstract mail sender that dispatches messages to the member senders
+ * <p>
+ * Messages are created by the first member sender, and could be sent by any member sender.
+ *
+ * @author David Hsing
+ * @see org.springframework.mail.javamail.JavaMailSender
+ */
+@SuppressWarnings("unused")
+public abstract class AbstractCompositeMailSender implements JavaMailSender {
+    private final Map<String, JavaMailSender> mailSenders;
+
+    /**
+     * Constructs a composite sender
+     *
+     * @param mailSenders the member senders, keyed by names, in order
+     */
+    protected AbstractCompositeMailSender(@Nonnull Map<String, JavaMailSender> mailSenders) {
+        Assert.notEmpty(mailSenders, "Member senders must not be empty");
+        this.mailSenders = Collections.unmodifiableMap(new LinkedHashMap<>(mailSenders));
+    }
+
+    @Nonnull
+    @Override
+    public MimeMessage createMimeMessage() {
+        return mailSenders.values().iterator().next().createMimeMessage();
+    }
+
+    @Nonnull
+    @Override
+    public MimeMessage createMimeMessage(@Nonnull InputStream contentStream) throws MailException {
+        return mailSenders.values().iterator().next().createMimeMessage(contentStream);
+    }
+
+    @Override
+    public void send(@Nonnull SimpleMailMessage... simpleMessages) throws MailException {
+        Map<MimeMessage, SimpleMailMessage> originals = new IdentityHashMap<>(simpleMessages.length);
+        MimeMessage[] mimeMessages = new MimeMessage[simpleMessages.length];
+        for (int i = 0; i < simpleMessages.length; i++) {
+            MimeMailMessage message = new MimeMailMessage(createMimeMessage());
+            simpleMessages[i].copyTo(message);
+            mimeMessages[i] = message.getMimeMessage();
+            originals.put(mimeMessages[i], simpleMessages[i]);
+        }
+        try {
+            send(mimeMessages);
+        } catch (MailSendException ex) {
+            if (ex.getFailedMessages().isEmpty()) {
+                throw ex;
+            }
+            Map<Object, Exception> failures = new LinkedHashMap<>(ex.getFailedMessages().size());
+            ex.getFailedMessages().forEach((message, failure) -> failures.put(originals.containsKey(message) ? originals.get(message) : message, failure));
+            throw new MailSendException(ex.getMessage(), ex.getCause(), failures);
+        }
+    }
+
+    @Override
+    public void send(@Nonnull MimeMessage... mimeMessages) throws MailException {
+        if (mimeMessages.length > 0) {
+            doSend(mimeMessages);
+        }
+    }
+
+    /**
+     * Sends the messages by the member senders
+     *
+     * @param mimeMessages the messages to send, never empty
+     *
+     * @throws MailException if failed to send the messages
+     */
+    protected abstract void doSend(@Nonnull MimeMessage[] mimeMessages) throws MailException;
+
+    /**
+     * Returns whether the exception indicates that the member sender is unavailable or not
+     * <p>
+     * A member sender is considered unavailable if it could not send any of the messages, rather than rejecting some of them.
+     * A {@link org.springframework.mail.MailSendException} without failed messages is thrown after the messages are sent, such as failing to close the connection,
+     * and the permanent {@code 5xx} rejections are failures of the messages rather than the member sender, so neither of them is considered unavailable.
+     * Neither is a message that has been sent to a part of its recipients.
+     *
+     * @param ex the exception thrown by the member sender
+     * @param messageCount the number of messages that tried to send
+     *
+     * @return whether the exception indicates that the member sender is unavailable or not
+     */
+    protected boolean isUnavailable(@Nonnull Exception ex, int messageCount) {
+        if (ex instanceof MailAuthenticationException) {
+            return true;
+        }
+        if (ex instanceof MailSendException sendException) {
+            Map<Object, Exception> failedMessages = sendException.getFailedMessages();
+            if (failedMessages.isEmpty() || failedMessages.size() < messageCount || failedMessages.values().stream().anyMatch(this::isPartiallySent)) {
+                return false;
+            }
+            return failedMessages.values().stream().anyMatch(failure -> !isRejected(failure));
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the failure of a message is a permanent rejection, that sending by another member sender would be rejected too
+     *
+     * @param failure the failure of a message
+     *
+     * @return whether the failure of a message is a permanent rejection
+     */
+    protected boolean isRejected(@Nonnull Exception failure) {
+        int replyCode = MailSenderUtils.getReplyCode(failure);
+        return replyCode >= 500 && replyCode < 600;
+    }
+
+    /**
+     * Returns whether the failure of a message tells that the message has been sent to a part of its recipients
+     *
+     * @param failure the failure of a message
+     *
+     * @return whether the failure of a message tells that the message has been sent to a part of its recipients
+     */
+    protected boolean isPartiallySent(@Nonnull Exception failure) {
+        SendFailedException sendFailed = MailSenderUtils.getSendFailedException(failure);
+        return sendFailed != null && !ObjectUtils.isEmpty(sendFailed.getValidSentAddresses());
+    }
+
+    @Nonnull
+    public Map<String, JavaMailSender> getMailSenders() {
+        return mailSenders;
+    }
+}
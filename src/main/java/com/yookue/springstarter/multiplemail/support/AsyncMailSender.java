@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * Mail sender that sends messages asynchronously, with a bounded number of in-flight sessions
+ * <p>
+ * The sending runs on virtual threads (jdk 21+) or on a bounded pool of platform threads,
+ * and waits for a permit of the semaphore before connecting, so that a traffic burst could not exhaust the connection limit of the mail server.
+ *
+ * @author David Hsing
+ * @see org.springframework.mail.javamail.JavaMailSender
+ */
+@SuppressWarnings("unused")
+public class AsyncMailSender implements DisposableBean {
+    private final JavaMailSender mailSender;
+    private final AsyncTaskExecutor executor;
+    private final Semaphore permits;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+
+    /**
+     * Constructs an async sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the async properties
+     */
+    public AsyncMailSender(@Nonnull String name, @Nonnull JavaMailSender mailSender, @Nonnull MailSenderProperties.Async properties) {
+        Assert.isTrue(properties.getMaxInFlight() != null && properties.getMaxInFlight() > 0, "Max in-flight must be positive");
+        this.mailSender = mailSender;
+        this.permits = new Semaphore(properties.getMaxInFlight(), true);
+        this.executor = MailSenderUtils.createTaskExecutor(name + "-", properties.getMaxInFlight(), Boolean.TRUE.equals(properties.getVirtualThreads()));
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull SimpleMailMessage... simpleMessages) {
+        return submit(() -> mailSender.send(simpleMessages));
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MimeMessage... mimeMessages) {
+        return submit(() -> mailSender.send(mimeMessages));
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MimeMessagePreparator... preparators) {
+        return submit(() -> mailSender.send(preparators));
+    }
+
+    /**
+     * Returns the number of sendings that submitted but not completed yet
+     *
+     * @return the number of sendings that submitted but not completed yet
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Returns the number of sendings that holding SMTP sessions
+     *
+     * @return the number of sendings that holding SMTP sessions
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> submit(@Nonnull Runnable action) {
+        pendingCount.incrementAndGet();
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new MailSendException("Interrupted waiting for in-flight permit", ex);
+                }
+                inFlightCount.incrementAndGet();
+                try {
+                    action.run();
+                } finally {
+                    inFlightCount.decrementAndGet();
+                    permits.release();
+                }
+            }, executor).whenComplete((ignored, ex) -> pendingCount.decrementAndGet());
+        } catch (RuntimeException ex) {
+            pendingCount.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        MailSenderUtils.closeTaskExecutor(executor);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.mail.MailException;
+import org.springframework.mail.javamail.JavaMailSender;
+import com.yookue.springstarter.multiplemail.enumeration.MailBalanceStrategy;
+import lombok.Getter;
+
+
+/**
+ * Mail sender that spreads messages across the member senders
+ * <p>
+ * A member sender is marked as unavailable after consecutive failures, and will be tried again after the recovery interval.
+ * If all the member senders are unavailable, the messages are still sent by the picked one.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.enumeration.MailBalanceStrategy
+ */
+@SuppressWarnings("unused")
+public class BalancedMailSender extends AbstractCompositeMailSender {
+    private final MailBalanceStrategy strategy;
+    private final int failureThreshold;
+    private final long recoveryNanos;
+    private final List<Member> members;
+    private final int totalWeight;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Constructs a balanced sender
+     *
+     * @param mailSenders the member senders, keyed by names, in order
+     * @param strategy the load balancing strategy
+     * @param weights the weights of the member senders, keyed by names, defaults to {@code 1}
+     * @param failureThreshold the number of consecutive failures to mark a member sender as unavailable
+     * @param recoveryInterval the duration that an unavailable member sender will be skipped
+     */
+    public BalancedMailSender(@Nonnull Map<String, JavaMailSender> mailSenders, @Nonnull MailBalanceStrategy strategy, @Nullable Map<String, Integer> weights, int failureThreshold, @Nullable Duration recoveryInterval) {
+        super(mailSenders);
+        this.strategy = strategy;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.recoveryNanos = (recoveryInterval == null) ? 0L : Math.max(recoveryInterval.toNanos(), 0L);
+        List<Member> list = new ArrayList<>(mailSenders.size());
+        mailSenders.forEach((name, sender) -> list.add(new Member(name, sender, Math.max((weights == null) ? 1 : weights.getOrDefault(name, 1), 0))));
+        this.members = Collections.unmodifiableList(list);
+        this.totalWeight = list.stream().mapToInt(Member::getWeight).sum();
+    }
+
+    @Override
+    protected void doSend(@Nonnull MimeMessage[] mimeMessages) throws MailException {
+        Member member = pickMember();
+        member.inFlight.incrementAndGet();
+        try {
+            member.sender.send(mimeMessages);
+            member.consecutiveFailures.set(0);
+            member.unavailableUntil = 0L;
+        } catch (MailException ex) {
+            if (isUnavailable(ex, mimeMessages.length) && member.consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                member.unavailableUntil = System.nanoTime() + recoveryNanos;
+            }
+            throw ex;
+        } finally {
+            member.inFlight.decrementAndGet();
+        }
+    }
+
+    @Nonnull
+    private Member pickMember() {
+        long now = System.nanoTime();
+        List<Member> candidates = members.stream().filter(member -> member.isAvailable(now)).toList();
+        if (candidates.isEmpty()) {
+            candidates = members;
+        }
+        int offset = Math.floorMod(counter.getAndIncrement(), candidates.size());
+        switch (strategy) {
+            case WEIGHTED -> {
+                int weight = (candidates == members) ? totalWeight : candidates.stream().mapToInt(Member::getWeight).sum();
+                if (weight <= 0) {
+                    return candidates.get(offset);
+                }
+                int random = ThreadLocalRandom.current().nextInt(weight);
+                for (Member member : candidates) {
+                    random -= member.weight;
+                    if (random < 0) {
+                        return member;
+                    }
+                }
+                return candidates.get(offset);
+            }
+            case LEAST_IN_FLIGHT -> {
+                // Starts from a rotating offset, so that the ties are broken in round-robin
+                Member result = candidates.get(offset);
+                for (int i = 1; i < candidates.size(); i++) {
+                    Member member = candidates.get((offset + i) % candidates.size());
+                    if (member.inFlight.get() < result.inFlight.get()) {
+                        result = member;
+                    }
+                }
+                return result;
+            }
+            default -> {
+                return candidates.get(offset);
+            }
+        }
+    }
+
+    @Nonnull
+    public List<Member> getMembers() {
+        return members;
+    }
+
+
+    /**
+     * Member sender and its state
+     *
+     * @author David Hsing
+     */
+    @Getter
+    public static class Member {
+        private final String name;
+        private final JavaMailSender sender;
+        private final int weight;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long unavailableUntil;
+
+        private Member(@Nonnull String name, @Nonnull JavaMailSender sender, int weight) {
+            this.name = name;
+            this.sender = sender;
+            this.weight = weight;
+        }
+
+        public boolean isAvailable(long nanoTime) {
+            return unavailableUntil == 0L || nanoTime - unavailableUntil >= 0L;
+        }
+    }
+}
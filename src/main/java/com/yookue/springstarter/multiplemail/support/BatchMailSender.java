@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Mail sender that collects messages from concurrent callers, and sends each batch over one transport
+ * <p>
+ * A batch is flushed when it reaches the max size, or when the window elapsed since its first message arrived.
+ * Each caller gets the result of its own message, even if other messages of the same batch failed.
+ *
+ * @author David Hsing
+ * @see org.springframework.mail.javamail.JavaMailSender#send(MimeMessage...)
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class BatchMailSender implements DisposableBean {
+    private static final long POLL_MILLIS = 100L;
+
+    private final String name;
+    private final JavaMailSender mailSender;
+    private final MailSenderProperties.Batch properties;
+    private final BlockingQueue<BatchItem> queue;
+    private final Semaphore flushPermits;
+    private final AsyncTaskExecutor executor;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+    private volatile boolean dispatcherExited;
+
+    /**
+     * Constructs a batch sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the batch properties
+     */
+    public BatchMailSender(@Nonnull String name, @Nonnull JavaMailSender mailSender, @Nonnull MailSenderProperties.Batch properties) {
+        Assert.isTrue(properties.getMaxSize() != null && properties.getMaxSize() > 0, "Batch max size must be positive");
+        Assert.isTrue(properties.getQueueCapacity() != null && properties.getQueueCapacity() > 0, "Batch queue capacity must be positive");
+        Assert.isTrue(properties.getConcurrency() != null && properties.getConcurrency() > 0, "Batch concurrency must be positive");
+        this.name = name;
+        this.mailSender = mailSender;
+        this.properties = properties;
+        this.queue = new LinkedBlockingQueue<>(properties.getQueueCapacity());
+        this.flushPermits = new Semaphore(properties.getConcurrency());
+        this.executor = MailSenderUtils.createTaskExecutor(name + "-", properties.getConcurrency(), true);
+        this.dispatcher = new Thread(this::dispatch, name + "-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull SimpleMailMessage simpleMessage) {
+        MimeMailMessage message = new MimeMailMessage(mailSender.createMimeMessage());
+        simpleMessage.copyTo(message);
+        return send(message.getMimeMessage());
+    }
+
+    /**
+     * Queues the message into the next batch
+     * <p>
+     * If the queue is full, waits for the offer timeout at most, so that the callers are throttled by the sending speed.
+     *
+     * @param mimeMessage the message to send
+     *
+     * @return a future that completes when the batch containing the message has been sent
+     */
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MimeMessage mimeMessage) {
+        BatchItem item = new BatchItem(mimeMessage, new CompletableFuture<>());
+        if (!running) {
+            item.future.completeExceptionally(new MailSendException(String.format("Batch sender '%s' has been shut down", name)));
+            return item.future;
+        }
+        try {
+            Duration timeout = properties.getOfferTimeout();
+            long millis = (timeout == null) ? 0L : Math.max(timeout.toMillis(), 0L);
+            if (!queue.offer(item, millis, TimeUnit.MILLISECONDS)) {
+                item.future.completeExceptionally(new MailSendException(String.format("Queue of batch sender '%s' is full", name)));
+            } else if (dispatcherExited && queue.remove(item)) {
+                // Queued after the dispatcher has exited, nobody would send it
+                item.future.completeExceptionally(new MailSendException(String.format("Batch sender '%s' has been shut down", name)));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            item.future.completeExceptionally(new MailSendException("Interrupted queueing message", ex));
+        }
+        return item.future;
+    }
+
+    /**
+     * Builds and sends a message for each record, with the parallelism of available processors, and at most queue capacity messages pending
+     *
+     * @param records the records of the recipients
+     * @param assembler the assembler that builds a message for a record
+     * @param <T> the type of records
+     *
+     * @return a future that completes with the result when all the records have been sent or failed
+     *
+     * @see com.yookue.springstarter.multiplemail.support.MailMerge
+     */
+    @Nonnull
+    public <T> CompletableFuture<MailMerge.Result> merge(@Nonnull Stream<? extends T> records, @Nonnull MailMerge.Assembler<? super T> assembler) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        return new MailMerge(name + "-merge", this, parallelism, Math.max(properties.getQueueCapacity(), parallelism)).send(records, assembler);
+    }
+
+    /**
+     * Returns the number of messages waiting for the next batches
+     *
+     * @return the number of messages waiting for the next batches
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    private void dispatch() {
+        long windowNanos = (properties.getWindow() == null) ? 0L : Math.max(properties.getWindow().toNanos(), 0L);
+        int maxSize = properties.getMaxSize();
+        while (running || !queue.isEmpty()) {
+            try {
+                BatchItem first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<BatchItem> batch = new ArrayList<>(maxSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxSize) {
+                    queue.drainTo(batch, maxSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxSize || remaining <= 0L || !running) {
+                        break;
+                    }
+                    BatchItem next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flushPermits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            flush(batch);
+                        } finally {
+                            flushPermits.release();
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    flushPermits.release();
+                    batch.forEach(item -> item.future.completeExceptionally(ex));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable ex) {
+                if (log.isErrorEnabled()) {
+                    log.error(String.format("Unexpected error of batch sender '%s'", name), ex);
+                }
+            }
+        }
+        // Marks before failing the remaining, so that a message queued after that would be failed by its sender
+        dispatcherExited = true;
+        failRemaining();
+    }
+
+    private void flush(@Nonnull List<BatchItem> batch) {
+        MimeMessage[] messages = batch.stream().map(item -> item.message).toArray(MimeMessage[]::new);
+        try {
+            mailSender.send(messages);
+            batch.forEach(item -> item.future.complete(null));
+        } catch (MailSendException ex) {
+            Map<Object, Exception> failures = new IdentityHashMap<>(ex.getFailedMessages());
+            if (failures.isEmpty()) {
+                // Thrown after the messages are sent, such as failing to close the connection
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Batch sender '%s' sent %d messages with a failure", name, batch.size()), ex);
+                }
+                batch.forEach(item -> item.future.complete(null));
+                return;
+            }
+            for (BatchItem item : batch) {
+                Exception failure = failures.get(item.message);
+                if (failure == null) {
+                    item.future.complete(null);
+                } else {
+                    item.future.completeExceptionally(new MailSendException("Failed to send message", failure));
+                }
+            }
+        } catch (RuntimeException ex) {
+            batch.forEach(item -> item.future.completeExceptionally(ex));
+        }
+    }
+
+    private void failRemaining() {
+        BatchItem item;
+        while ((item = queue.poll()) != null) {
+            item.future.completeExceptionally(new MailSendException(String.format("Batch sender '%s' has been shut down", name)));
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        dispatcher.join(TimeUnit.SECONDS.toMillis(30L));
+        MailSenderUtils.closeTaskExecutor(executor);
+    }
+
+
+    private record BatchItem(MimeMessage message, CompletableFuture<Void> future) {
+    }
+}
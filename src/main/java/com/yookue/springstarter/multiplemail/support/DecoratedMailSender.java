@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.SocketFactory;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.NoSuchProviderException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.mail.MailConfigurationUtils;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+
+
+/**
+ * {@link org.springframework.mail.javamail.JavaMailSenderImpl} with optional transport pool, rate limiter, metrics, idempotency guard and ESMTP extensions
+ *
+ * @author David Hsing
+ * @see org.springframework.mail.javamail.JavaMailSenderImpl
+ */
+@SuppressWarnings("unused")
+public class DecoratedMailSender extends JavaMailSenderImpl implements DisposableBean {
+    private MailTransportPool transportPool;
+    private MailRateLimiter rateLimiter;
+    private MailSenderMetrics metrics;
+    private MailIdempotencyGuard idempotencyGuard;
+    private boolean pipelining;
+    private long chunkSize;
+    private volatile Session[] chunkingSessions;
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicBoolean destroyed = new AtomicBoolean();
+    private volatile boolean retired;
+
+    /**
+     * Constructs a decorated sender with the same attributes of the source sender
+     *
+     * @param source the source sender that built by spring boot
+     */
+    public DecoratedMailSender(@Nonnull JavaMailSenderImpl source) {
+        super.setHost(source.getHost());
+        super.setPort(source.getPort());
+        super.setUsername(source.getUsername());
+        super.setPassword(source.getPassword());
+        super.setProtocol(source.getProtocol());
+        super.setDefaultEncoding(source.getDefaultEncoding());
+        super.setDefaultFileTypeMap(source.getDefaultFileTypeMap());
+        super.setJavaMailProperties(source.getJavaMailProperties());
+        super.setSession(source.getSession());
+    }
+
+    @Override
+    protected void doSend(@Nonnull MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        if (idempotencyGuard == null) {
+            doObservedSend(mimeMessages, originalMessages);
+        } else {
+            doIdempotentSend(mimeMessages, originalMessages);
+        }
+    }
+
+    private void doIdempotentSend(@Nonnull MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        MimeMessage[] claimedMessages = new MimeMessage[mimeMessages.length];
+        Object[] claimedOriginals = (originalMessages == null) ? null : new Object[originalMessages.length];
+        String[] keys = new String[mimeMessages.length];
+        int count = 0;
+        for (int i = 0; i < mimeMessages.length; i++) {
+            // The envelopes of a fan-out have been claimed as a whole
+            String key = (mimeMessages[i] instanceof FanOutMailSender.Envelope) ? null : idempotencyGuard.resolveKey(mimeMessages[i]);
+            if (key != null && !idempotencyGuard.tryClaim(key)) {
+                continue;
+            }
+            claimedMessages[count] = mimeMessages[i];
+            if (claimedOriginals != null) {
+                claimedOriginals[count] = originalMessages[i];
+            }
+            keys[count++] = key;
+        }
+        if (count == 0) {
+            return;
+        }
+        if (count < mimeMessages.length) {
+            claimedMessages = Arrays.copyOf(claimedMessages, count);
+            claimedOriginals = (claimedOriginals == null) ? null : Arrays.copyOf(claimedOriginals, count);
+        }
+        try {
+            doObservedSend(claimedMessages, claimedOriginals);
+        } catch (RuntimeException ex) {
+            // Releases the keys of the failed messages, a send exception without failed messages is thrown after sending, such as failing to close the connection
+            Map<Object, Exception> failedMessages = (ex instanceof MailSendException sendException) ? sendException.getFailedMessages() : null;
+            for (int i = 0; i < count; i++) {
+                if (keys[i] != null && (failedMessages == null || failedMessages.containsKey((claimedOriginals != null) ? claimedOriginals[i] : claimedMessages[i]))) {
+                    idempotencyGuard.release(keys[i]);
+                }
+            }
+            throw ex;
+        }
+    }
+
+    private void doObservedSend(@Nonnull MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        if (metrics == null) {
+            doDecoratedSend(mimeMessages, originalMessages);
+        } else {
+            metrics.observeSend(mimeMessages.length, () -> doDecoratedSend(mimeMessages, originalMessages));
+        }
+    }
+
+    private void doDecoratedSend(@Nonnull MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        if (rateLimiter != null) {
+            try {
+                rateLimiter.acquire(mimeMessages.length);
+            } catch (MailSendException ex) {
+                // Lists the messages as failed, since a failure without failed messages means they have been sent
+                Map<Object, Exception> failedMessages = new LinkedHashMap<>(mimeMessages.length);
+                for (int i = 0; i < mimeMessages.length; i++) {
+                    failedMessages.put((originalMessages != null) ? originalMessages[i] : mimeMessages[i], ex);
+                }
+                throw new MailSendException(ex.getMessage(), ex, failedMessages);
+            }
+        }
+        if (transportPool == null) {
+            super.doSend(mimeMessages, originalMessages);
+        } else {
+            doPooledSend(mimeMessages, originalMessages);
+        }
+    }
+
+    private void doPooledSend(@Nonnull MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        MailTransportPool.PooledTransport pooled = null;
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                if (pooled == null) {
+                    try {
+                        pooled = transportPool.borrowTransport();
+                    } catch (AuthenticationFailedException ex) {
+                        throw new MailAuthenticationException(ex);
+                    } catch (Exception ex) {
+                        for (int j = i; j < mimeMessages.length; j++) {
+                            failedMessages.put((originalMessages != null) ? originalMessages[j] : mimeMessages[j], ex);
+                        }
+                        throw new MailSendException("Mail server connection failed", ex, failedMessages);
+                    }
+                }
+                MimeMessage mimeMessage = mimeMessages[i];
+                try {
+                    if (mimeMessage.getSentDate() == null) {
+                        mimeMessage.setSentDate(new Date());
+                    }
+                    String messageId = mimeMessage.getMessageID();
+                    mimeMessage.saveChanges();
+                    if (messageId != null) {
+                        mimeMessage.setHeader("Message-ID", messageId);
+                    }
+                    Address[] addresses = mimeMessage.getAllRecipients();
+                    pooled.getTransport().sendMessage(mimeMessage, (addresses != null) ? addresses : new Address[0]);
+                    pooled.increaseMessageCount();
+                } catch (Exception ex) {
+                    failedMessages.put((originalMessages != null) ? originalMessages[i] : mimeMessage, ex);
+                    // A rejected message does not break the connection, but an I/O failure does
+                    if (!pooled.getTransport().isConnected()) {
+                        transportPool.returnTransport(pooled, false);
+                        pooled = null;
+                    }
+                }
+            }
+        } finally {
+            transportPool.returnTransport(pooled, true);
+        }
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    @Nonnull
+    protected Transport getTransport(@Nonnull Session session) throws NoSuchProviderException {
+        if (metrics == null && !pipelining && chunkSize <= 0L) {
+            return super.getTransport(session);
+        }
+        String protocol = getProtocol();
+        if (protocol == null) {
+            protocol = session.getProperty("mail.transport.protocol");
+        }
+        if (protocol == null) {
+            protocol = DEFAULT_PROTOCOL;
+        }
+        if (!protocol.equals("smtp") && !protocol.equals("smtps")) {
+            return super.getTransport(session);
+        }
+        Session transportSession = (chunkSize > 0L) ? getChunkingSession(session, protocol) : session;
+        URLName urlName = new URLName(protocol, null, -1, null, null, null);
+        return (metrics == null) ? new PipeliningSmtpTransport(transportSession, urlName, protocol, pipelining) : new MeteredSmtpTransport(transportSession, urlName, protocol, pipelining, metrics);
+    }
+
+    /**
+     * Returns a session that enables {@code BDAT} commands, derived from the session once
+     * <p>
+     * A session that already has the chunk size property is returned as it is.
+     * Only the sessions built from properties are derived, which have no authenticator, a session looked up by JNDI or set externally is returned as it is, so that the content is sent by {@code DATA}.
+     * A socket factory of the session is wrapped to disable Nagle's algorithm, the default factories are left to the ssl properties of the session.
+     */
+    @Nonnull
+    private Session getChunkingSession(@Nonnull Session session, @Nonnull String protocol) {
+        String prefix = "mail." + protocol;
+        if (session.getProperty(prefix + ".chunksize") != null) {
+            return session;
+        }
+        Session[] cached = chunkingSessions;
+        if (cached != null && cached[0] == session) {
+            return cached[1];
+        }
+        if (session.getProperties() != getJavaMailProperties() && !MailConfigurationUtils.isSharedMailSession(session)) {
+            chunkingSessions = new Session[] {session, session};
+            return session;
+        }
+        Properties properties = new Properties();
+        properties.putAll(session.getProperties());
+        properties.setProperty(prefix + ".chunksize", String.valueOf(chunkSize));
+        boolean ssl = protocol.equals("smtps") || Boolean.parseBoolean(properties.getProperty(prefix + ".ssl.enable"));
+        String factoryKey = ssl ? prefix + ".ssl.socketFactory" : prefix + ".socketFactory";
+        if (properties.get(factoryKey) instanceof SocketFactory socketFactory) {
+            properties.put(factoryKey, NoDelaySocketFactory.of(socketFactory));
+        }
+        Session result = Session.getInstance(properties);
+        result.setDebug(session.getDebug());
+        chunkingSessions = new Session[] {session, result};
+        return result;
+    }
+
+    @Nullable
+    public MailTransportPool getTransportPool() {
+        return transportPool;
+    }
+
+    /**
+     * Creates a transport pool that connects transports by this sender
+     *
+     * @param name the name of the pool, usually the bean name of this sender
+     * @param properties the pool properties
+     */
+    public void initTransportPool(@Nonnull String name, @Nonnull MailSenderProperties.Pool properties) {
+        if (transportPool != null) {
+            transportPool.close();
+        }
+        transportPool = new MailTransportPool(name, this::connectTransport, properties);
+    }
+
+    @Nullable
+    public MailRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public void setRateLimiter(@Nullable MailRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Nullable
+    public MailSenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(@Nullable MailSenderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Nullable
+    public MailIdempotencyGuard getIdempotencyGuard() {
+        return idempotencyGuard;
+    }
+
+    public void setIdempotencyGuard(@Nullable MailIdempotencyGuard idempotencyGuard) {
+        this.idempotencyGuard = idempotencyGuard;
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Sets whether to pipeline the envelope commands, when the server advertises {@code PIPELINING}
+     *
+     * @param pipelining whether to pipeline the envelope commands or not
+     */
+    public void setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the size of {@code BDAT} chunks, when the server advertises {@code CHUNKING}, non-positive means sending with {@code DATA}
+     *
+     * @param chunkSize the size of {@code BDAT} chunks in bytes
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Marks a call that is going to send by this sender, so that a retired sender would not be destroyed until the call is finished
+     */
+    void acquireInFlight() {
+        inFlightCount.incrementAndGet();
+    }
+
+    /**
+     * Unmarks a call that marked by {@link #acquireInFlight()}, and destroys this sender if it has been retired and this is the last call
+     */
+    void releaseInFlight() {
+        if (inFlightCount.decrementAndGet() == 0 && retired) {
+            destroyOnce();
+        }
+    }
+
+    /**
+     * Destroys this sender after the in-flight calls are finished, such as when it is replaced by a reloaded one
+     */
+    void retire() {
+        retired = true;
+        if (inFlightCount.get() == 0) {
+            destroyOnce();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        destroyOnce();
+    }
+
+    private void destroyOnce() {
+        if (destroyed.compareAndSet(false, true) && transportPool != null) {
+            transportPool.close();
+        }
+    }
+}
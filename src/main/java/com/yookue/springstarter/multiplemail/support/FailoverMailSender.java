@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Mail sender that tries the member senders in order, skipping the ones whose circuit breakers are open
+ * <p>
+ * The messages are sent by the next member sender only if the previous one could not send any of them, and not because of permanent {@code 5xx} rejections,
+ * so that no message will be sent twice. A failure after the messages are sent, such as failing to close the connection, is thrown without failing over.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailCircuitBreaker
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class FailoverMailSender extends AbstractCompositeMailSender {
+    private final Map<String, MailCircuitBreaker> circuitBreakers;
+
+    /**
+     * Constructs a failover sender
+     *
+     * @param mailSenders the member senders, keyed by names, in order
+     * @param properties the circuit breaker properties of each member sender
+     */
+    public FailoverMailSender(@Nonnull Map<String, JavaMailSender> mailSenders, @Nonnull MultipleMailProperties.CircuitBreaker properties) {
+        super(mailSenders);
+        Map<String, MailCircuitBreaker> breakers = new LinkedHashMap<>(mailSenders.size());
+        mailSenders.keySet().forEach(name -> breakers.put(name, new MailCircuitBreaker(properties)));
+        this.circuitBreakers = Collections.unmodifiableMap(breakers);
+    }
+
+    @Override
+    protected void doSend(@Nonnull MimeMessage[] mimeMessages) throws MailException {
+        MailException lastException = null;
+        for (Map.Entry<String, JavaMailSender> entry : getMailSenders().entrySet()) {
+            MailCircuitBreaker breaker = circuitBreakers.get(entry.getKey());
+            if (!breaker.tryAcquirePermission()) {
+                continue;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                entry.getValue().send(mimeMessages);
+                breaker.onSuccess(System.nanoTime() - startNanos);
+                return;
+            } catch (MailException ex) {
+                if (!isUnavailable(ex, mimeMessages.length)) {
+                    // Some messages have been sent or permanently rejected, failing over would send them twice or in vain
+                    breaker.onSuccess(System.nanoTime() - startNanos);
+                    throw ex;
+                }
+                breaker.onFailure(System.nanoTime() - startNanos);
+                lastException = ex;
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Mail sender '%s' failed, failing over to the next one", entry.getKey()), ex);
+                }
+            } catch (RuntimeException ex) {
+                // Resolves the permission of a half-open breaker, whether the messages have been sent is unknown, so not failing over
+                breaker.onFailure(System.nanoTime() - startNanos);
+                throw ex;
+            }
+        }
+        throw (lastException != null) ? lastException : new MailSendException("No available mail sender, all circuit breakers are open");
+    }
+
+    @Nonnull
+    public Map<String, MailCircuitBreaker> getCircuitBreakers() {
+        return circuitBreakers;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.SharedByteArrayInputStream;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Mail sender that fans a message out to a large number of recipients, by splitting them into envelopes
+ * <p>
+ * Each envelope carries at most {@code chunk-size} recipients, so that a relay would not reject the RCPT commands over its limit,
+ * and the envelopes are sent in parallel, each over its own connection. The message is serialized once, all the envelopes write the same bytes,
+ * so the content is neither copied nor encoded again for each envelope, and all the recipients receive the same {@code Message-ID}.
+ * <p>
+ * If some recipients of an envelope are rejected, the other recipients of the envelope are sent again in a new envelope,
+ * so that a single invalid address could not fail the others. The result reports the delivery of each recipient.
+ *
+ * @author David Hsing
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class FanOutMailSender implements DisposableBean {
+    private final String name;
+    private final JavaMailSenderImpl mailSender;
+    private final int chunkSize;
+    private final int concurrency;
+    private final AsyncTaskExecutor executor;
+
+    /**
+     * Constructs a fan-out sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the fan-out properties
+     */
+    public FanOutMailSender(@Nonnull String name, @Nonnull JavaMailSenderImpl mailSender, @Nonnull MailSenderProperties.FanOut properties) {
+        Assert.isTrue(properties.getChunkSize() != null && properties.getChunkSize() > 0, "Fan-out chunk size must be positive");
+        Assert.isTrue(properties.getConcurrency() != null && properties.getConcurrency() > 0, "Fan-out concurrency must be positive");
+        this.name = name;
+        this.mailSender = mailSender;
+        this.chunkSize = properties.getChunkSize();
+        this.concurrency = properties.getConcurrency();
+        this.executor = MailSenderUtils.createTaskExecutor(name + "-", concurrency, Boolean.TRUE.equals(properties.getVirtualThreads()));
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    @Nonnull
+    public CompletableFuture<Result> send(@Nonnull SimpleMailMessage simpleMessage) {
+        MimeMailMessage message = new MimeMailMessage(mailSender.createMimeMessage());
+        simpleMessage.copyTo(message);
+        return send(message.getMimeMessage());
+    }
+
+    /**
+     * Sends the message to all of its recipients, in envelopes of at most {@code chunk-size} recipients
+     *
+     * @param mimeMessage the message to send
+     *
+     * @return a future that completes with the delivery of each recipient, or completes exceptionally if the message could not be prepared
+     */
+    @Nonnull
+    public CompletableFuture<Result> send(@Nonnull MimeMessage mimeMessage) {
+        MailIdempotencyGuard guard = getIdempotencyGuard();
+        String key = (guard == null) ? null : guard.resolveKey(mimeMessage);
+        Run run;
+        try {
+            Address[] addresses = mimeMessage.getAllRecipients();
+            Set<Address> recipients = (addresses == null) ? Collections.emptySet() : new LinkedHashSet<>(Arrays.asList(addresses));
+            if (key != null && !guard.tryClaim(key)) {
+                return CompletableFuture.completedFuture(new Result(recipients.size(), true, Collections.emptyList(), Collections.emptyMap()));
+            }
+            run = new Run(mimeMessage.getSession(), serialize(mimeMessage), recipients, guard, key);
+        } catch (MessagingException | IOException ex) {
+            if (key != null) {
+                guard.release(key);
+            }
+            return CompletableFuture.failedFuture(new MailPreparationException(ex));
+        }
+        run.start();
+        return run.future;
+    }
+
+    @Override
+    public void destroy() {
+        MailSenderUtils.closeTaskExecutor(executor);
+    }
+
+    /**
+     * Fixes the sent date and the {@code Message-ID} of the message, and serializes it for the envelopes
+     */
+    @Nonnull
+    private byte[] serialize(@Nonnull MimeMessage message) throws MessagingException, IOException {
+        if (message.getSentDate() == null) {
+            message.setSentDate(new Date());
+        }
+        String messageId = message.getMessageID();
+        message.saveChanges();
+        if (messageId != null) {
+            message.setHeader("Message-ID", messageId);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        message.writeTo(output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns the idempotency guard of the actual sender, the fan-out claims the key once for all of its envelopes
+     */
+    @Nullable
+    private MailIdempotencyGuard getIdempotencyGuard() {
+        JavaMailSenderImpl sender = (mailSender instanceof ReloadableMailSender reloadable) ? reloadable.getDelegate() : mailSender;
+        return (sender instanceof DecoratedMailSender decorated) ? decorated.getIdempotencyGuard() : null;
+    }
+
+
+    /**
+     * Result of a fan-out
+     *
+     * @author David Hsing
+     */
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @Getter
+    @ToString
+    public static class Result {
+        private final int total;
+
+        /**
+         * Whether the message has been dropped as a duplicate by the idempotency guard
+         */
+        private final boolean duplicate;
+
+        @ToString.Exclude
+        private final List<Address> delivered;
+
+        /**
+         * The failures of the recipients, keyed by the addresses
+         */
+        @ToString.Exclude
+        private final Map<Address, Exception> failures;
+
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+
+    /**
+     * Message that writes the serialized bytes of another message as it is, but is sent to a part of its recipients
+     * <p>
+     * The envelopes of a fan-out share the same {@code Message-ID}, they are claimed as a whole by the fan-out sender, rather than by the idempotency guard of the actual sender.
+     *
+     * @author David Hsing
+     */
+    static class Envelope extends MimeMessage {
+        private final Address[] recipients;
+
+        private Envelope(@Nullable Session session, @Nonnull byte[] content, @Nonnull Address[] recipients) throws MessagingException {
+            super(session, new SharedByteArrayInputStream(content));
+            this.recipients = recipients;
+        }
+
+        @Override
+        public Address[] getAllRecipients() {
+            return recipients;
+        }
+
+        /**
+         * Keeps the headers and the content as they are, so that the bytes are written without encoding again
+         */
+        @Override
+        public void saveChanges() {
+        }
+    }
+
+
+    /**
+     * State of a running fan-out
+     *
+     * @author David Hsing
+     */
+    private class Run {
+        private final Session session;
+        private final byte[] content;
+        private final int total;
+        private final MailIdempotencyGuard guard;
+        private final String key;
+        private final Queue<Address[]> envelopes = new ConcurrentLinkedQueue<>();
+        private final Queue<Address> delivered = new ConcurrentLinkedQueue<>();
+        private final Map<Address, Exception> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+        private final AtomicInteger workers = new AtomicInteger();
+        private final CompletableFuture<Result> future = new CompletableFuture<>();
+
+        private Run(@Nullable Session session, @Nonnull byte[] content, @Nonnull Set<Address> recipients, @Nullable MailIdempotencyGuard guard, @Nullable String key) {
+            this.session = session;
+            this.content = content;
+            this.total = recipients.size();
+            this.guard = guard;
+            this.key = key;
+            Address[] addresses = recipients.toArray(new Address[0]);
+            for (int i = 0; i < addresses.length; i += chunkSize) {
+                envelopes.offer(Arrays.copyOfRange(addresses, i, Math.min(i + chunkSize, addresses.length)));
+            }
+        }
+
+        private void start() {
+            int count = Math.max(Math.min(concurrency, envelopes.size()), 1);
+            workers.set(count);
+            for (int i = 0; i < count; i++) {
+                try {
+                    executor.execute(this::work);
+                } catch (RuntimeException ex) {
+                    // Leaves the envelopes to the running workers, or fails them if there is none
+                    finish(ex);
+                }
+            }
+        }
+
+        private void work() {
+            for (Address[] recipients = envelopes.poll(); recipients != null; recipients = envelopes.poll()) {
+                sendEnvelope(recipients, true);
+            }
+            finish(null);
+        }
+
+        private void finish(@Nullable Exception failure) {
+            if (workers.decrementAndGet() > 0) {
+                return;
+            }
+            for (Address[] recipients = envelopes.poll(); recipients != null; recipients = envelopes.poll()) {
+                for (Address recipient : recipients) {
+                    failures.put(recipient, (failure != null) ? failure : new MailSendException(String.format("Fan-out sender '%s' has been shut down", name)));
+                }
+            }
+            if (key != null && delivered.isEmpty() && !failures.isEmpty()) {
+                guard.release(key);
+            }
+            future.complete(new Result(total, false, new ArrayList<>(delivered), failures));
+        }
+
+        private void sendEnvelope(@Nonnull Address[] recipients, boolean retry) {
+            try {
+                mailSender.send(new Envelope(session, content, recipients));
+                delivered.addAll(Arrays.asList(recipients));
+            } catch (MessagingException | RuntimeException ex) {
+                SendFailedException sendFailed = findSendFailed(ex);
+                Address[] invalid = (sendFailed == null) ? null : sendFailed.getInvalidAddresses();
+                if (invalid == null || invalid.length == 0) {
+                    failAll(recipients, sendFailed, ex);
+                    return;
+                }
+                Map<Address, Exception> causes = getAddressFailures(sendFailed);
+                for (Address address : invalid) {
+                    failures.put(address, causes.getOrDefault(address, ex));
+                }
+                if (sendFailed.getValidSentAddresses() != null) {
+                    delivered.addAll(Arrays.asList(sendFailed.getValidSentAddresses()));
+                }
+                Address[] unsent = sendFailed.getValidUnsentAddresses();
+                if (unsent != null && unsent.length > 0) {
+                    if (retry) {
+                        // Sends the accepted recipients again without the rejected ones
+                        sendEnvelope(unsent, false);
+                    } else {
+                        failAll(unsent, null, ex);
+                    }
+                }
+            }
+        }
+
+        private void failAll(@Nonnull Address[] recipients, @Nullable SendFailedException sendFailed, @Nonnull Exception ex) {
+            Set<Address> sent = (sendFailed == null || sendFailed.getValidSentAddresses() == null) ? Collections.emptySet() : new HashSet<>(Arrays.asList(sendFailed.getValidSentAddresses()));
+            for (Address recipient : recipients) {
+                if (sent.contains(recipient)) {
+                    delivered.add(recipient);
+                } else {
+                    failures.put(recipient, ex);
+                }
+            }
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Fan-out sender '%s' failed to send an envelope of %d recipients", name, recipients.length), ex);
+            }
+        }
+
+        @Nullable
+        private SendFailedException findSendFailed(@Nonnull Exception ex) {
+            Throwable current = ex;
+            if (ex instanceof MailSendException sendException && sendException.getMessageExceptions().length > 0) {
+                current = sendException.getMessageExceptions()[0];
+            }
+            for (int depth = 0; current != null && depth < 8; depth++) {
+                if (current instanceof SendFailedException result) {
+                    return result;
+                }
+                current = current.getCause();
+            }
+            return null;
+        }
+
+        @Nonnull
+        private Map<Address, Exception> getAddressFailures(@Nonnull SendFailedException ex) {
+            Map<Address, Exception> result = new LinkedHashMap<>();
+            for (Exception next = ex.getNextException(); next != null; next = (next instanceof MessagingException messaging) ? messaging.getNextException() : null) {
+                if (next instanceof SMTPAddressFailedException failed) {
+                    result.putIfAbsent(failed.getAddress(), failed);
+                }
+            }
+            return result;
+        }
+    }
+}
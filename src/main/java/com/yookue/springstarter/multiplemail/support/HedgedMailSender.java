@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Mail sender that sends the messages by the first member sender, and hedges by the next one if the first one is slow
+ * <p>
+ * If the first member sender has not accepted the messages within a percentile of its recent durations, the same messages are sent by the next member sender too,
+ * the first attempt that succeeds wins, and the others are cancelled. Since a message accepted by a server could not be recalled,
+ * a hedged message may be delivered twice, so the {@code Message-ID} of each message is fixed before sending, and all the attempts share it,
+ * that the receivers could drop the duplicates.
+ * <p>
+ * Each message is serialized once before sending, all the attempts send the copies parsed from the bytes, so that an attempt that is still writing after another one won
+ * never touches the messages of the caller.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.FailoverMailSender
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class HedgedMailSender extends AbstractCompositeMailSender implements DisposableBean {
+    private final MultipleMailProperties.Hedging properties;
+    private final List<String> senderNames;
+    private final AsyncTaskExecutor executor;
+    private final long[] durations;
+    private final long initialDelayNanos;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private int durationCount;
+    private int durationIndex;
+
+    /**
+     * Constructs a hedged sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSenders the member senders, keyed by names, in order
+     * @param properties the hedging properties
+     */
+    public HedgedMailSender(@Nonnull String name, @Nonnull Map<String, JavaMailSender> mailSenders, @Nonnull MultipleMailProperties.Hedging properties) {
+        super(mailSenders);
+        Assert.isTrue(properties.getPercentile() != null && properties.getPercentile() > 0F && properties.getPercentile() <= 100F, "Hedging percentile must be in (0, 100]");
+        Assert.isTrue(properties.getWindowSize() != null && properties.getWindowSize() > 0, "Hedging window size must be positive");
+        Assert.isTrue(properties.getConcurrency() != null && properties.getConcurrency() > 0, "Hedging concurrency must be positive");
+        this.properties = properties;
+        this.senderNames = new ArrayList<>(getMailSenders().keySet());
+        this.executor = MailSenderUtils.createTaskExecutor(name + "-", properties.getConcurrency(), Boolean.TRUE.equals(properties.getVirtualThreads()));
+        this.durations = new long[properties.getWindowSize()];
+        this.minDelayNanos = (properties.getMinDelay() == null) ? 0L : Math.max(properties.getMinDelay().toNanos(), 0L);
+        this.maxDelayNanos = (properties.getMaxDelay() == null) ? Long.MAX_VALUE : Math.max(properties.getMaxDelay().toNanos(), minDelayNanos);
+        this.initialDelayNanos = (properties.getInitialDelay() == null) ? maxDelayNanos : Math.min(Math.max(properties.getInitialDelay().toNanos(), minDelayNanos), maxDelayNanos);
+    }
+
+    @Override
+    protected void doSend(@Nonnull MimeMessage[] mimeMessages) throws MailException {
+        byte[][] contents = fixMessages(mimeMessages);
+        int maxAttempts = Math.min(senderNames.size(), Math.max(properties.getMaxHedges() == null ? 0 : properties.getMaxHedges(), 0) + 1);
+        BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        Future<?>[] attempts = new Future<?>[maxAttempts];
+        long startNanos = System.nanoTime();
+        long delayNanos = getDelayNanos();
+        attempts[0] = submit(0, copyMessages(0, contents), mimeMessages, outcomes);
+        int launched = 1, running = 1;
+        MailException lastException = null, partialException = null;
+        try {
+            while (true) {
+                Outcome outcome;
+                if (partialException == null && launched < maxAttempts) {
+                    long waitNanos = startNanos + delayNanos * launched - System.nanoTime();
+                    outcome = (waitNanos > 0L) ? outcomes.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+                } else {
+                    outcome = outcomes.take();
+                }
+                if (outcome == null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Mail sender '%s' has not finished in %d ms, hedging by '%s'", senderNames.get(0), (System.nanoTime() - startNanos) / 1_000_000L, senderNames.get(launched)));
+                    }
+                    attempts[launched] = submit(launched, copyMessages(launched, contents), mimeMessages, outcomes);
+                    launched++;
+                    running++;
+                    continue;
+                }
+                running--;
+                if (outcome.exception() == null) {
+                    if (outcome.index() == 0 || attempts[0].isDone()) {
+                        recordDuration(outcome.elapsedNanos());
+                    } else {
+                        // The first sender is still running, its duration is at least the elapsed one
+                        recordDuration(System.nanoTime() - startNanos);
+                    }
+                    return;
+                }
+                if (!isUnavailable(outcome.exception(), mimeMessages.length)) {
+                    // Some messages have been sent or permanently rejected, hedging again would send them twice or in vain, but the running attempts may still succeed
+                    if (partialException == null) {
+                        partialException = outcome.exception();
+                    }
+                } else {
+                    lastException = outcome.exception();
+                    if (log.isWarnEnabled()) {
+                        log.warn(String.format("Mail sender '%s' failed in hedged sending", senderNames.get(outcome.index())), lastException);
+                    }
+                }
+                if (running == 0) {
+                    if (partialException != null) {
+                        throw partialException;
+                    }
+                    if (launched >= maxAttempts) {
+                        throw lastException;
+                    }
+                    // All the running attempts failed, hedges by the next sender at once
+                    attempts[launched] = submit(launched, copyMessages(launched, contents), mimeMessages, outcomes);
+                    launched++;
+                    running++;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MailSendException("Hedged sending has been interrupted", ex);
+        } finally {
+            for (int i = 0; i < launched; i++) {
+                attempts[i].cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the delay before hedging, that is the percentile of the recent durations of the first sender
+     *
+     * @return the delay before hedging in nanoseconds
+     */
+    public long getDelayNanos() {
+        long[] samples;
+        synchronized (durations) {
+            Integer minimum = properties.getMinimumSamples();
+            if (durationCount == 0 || (minimum != null && durationCount < minimum)) {
+                return initialDelayNanos;
+            }
+            samples = Arrays.copyOf(durations, durationCount);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(properties.getPercentile() / 100D * samples.length) - 1;
+        long result = samples[Math.min(Math.max(index, 0), samples.length - 1)];
+        return Math.min(Math.max(result, minDelayNanos), maxDelayNanos);
+    }
+
+    @Override
+    public void destroy() {
+        MailSenderUtils.closeTaskExecutor(executor);
+    }
+
+    private void recordDuration(long elapsedNanos) {
+        synchronized (durations) {
+            durations[durationIndex] = elapsedNanos;
+            durationIndex = (durationIndex + 1) % durations.length;
+            durationCount = Math.min(durationCount + 1, durations.length);
+        }
+    }
+
+    @Nonnull
+    private Future<?> submit(int index, @Nonnull MimeMessage[] mimeMessages, @Nonnull MimeMessage[] originals, @Nonnull BlockingQueue<Outcome> outcomes) {
+        JavaMailSender mailSender = getMailSenders().get(senderNames.get(index));
+        return executor.submit(() -> {
+            long startNanos = System.nanoTime();
+            MailException failure = null;
+            try {
+                mailSender.send(mimeMessages);
+            } catch (MailSendException ex) {
+                failure = restoreOriginals(ex, mimeMessages, originals);
+            } catch (MailException ex) {
+                failure = ex;
+            } catch (RuntimeException ex) {
+                failure = new MailSendException(ex.getMessage(), ex);
+            }
+            outcomes.offer(new Outcome(index, System.nanoTime() - startNanos, failure));
+        });
+    }
+
+    /**
+     * Fixes the sent date and the {@code Message-ID} of the messages, and serializes them for the attempts
+     */
+    @Nonnull
+    private byte[][] fixMessages(@Nonnull MimeMessage[] mimeMessages) throws MailException {
+        byte[][] result = new byte[mimeMessages.length][];
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                MimeMessage message = mimeMessages[i];
+                if (message.getSentDate() == null) {
+                    message.setSentDate(new Date());
+                }
+                String messageId = message.getMessageID();
+                message.saveChanges();
+                if (messageId != null) {
+                    message.setHeader("Message-ID", messageId);
+                }
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                message.writeTo(output);
+                result[i] = output.toByteArray();
+            }
+        } catch (MessagingException | IOException ex) {
+            throw new MailPreparationException(ex);
+        }
+        return result;
+    }
+
+    @Nonnull
+    private MimeMessage[] copyMessages(int index, @Nonnull byte[][] contents) throws MailException {
+        JavaMailSender mailSender = getMailSenders().get(senderNames.get(index));
+        MimeMessage[] result = new MimeMessage[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            result[i] = mailSender.createMimeMessage(new ByteArrayInputStream(contents[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the failed copies in the exception with the original messages
+     */
+    @Nonnull
+    private MailSendException restoreOriginals(@Nonnull MailSendException ex, @Nonnull MimeMessage[] copies, @Nonnull MimeMessage[] originals) {
+        if (ex.getFailedMessages().isEmpty()) {
+            return ex;
+        }
+        Map<Object, Exception> failures = new LinkedHashMap<>(ex.getFailedMessages().size());
+        ex.getFailedMessages().forEach((message, failure) -> {
+            int index = Arrays.asList(copies).indexOf(message);
+            failures.put((index < 0) ? message : originals[index], failure);
+        });
+        return new MailSendException(ex.getMessage(), ex.getCause(), failures);
+    }
+
+
+    private record Outcome(int index, long elapsedNanos, @Nullable MailException exception) {
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.function.Supplier;
+import jakarta.annotation.Nonnull;
+
+
+/**
+ * {@link org.springframework.mail.javamail.JavaMailSenderImpl} that builds the real sender and its session on first use
+ * <p>
+ * Constructing this sender costs nothing but an object, the JNDI lookup or the session creation happens on the first call that needs them,
+ * exactly once across threads. If the building fails, the next call tries again.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.ReloadableMailSender
+ */
+@SuppressWarnings("unused")
+public class LazyMailSender extends ReloadableMailSender {
+    /**
+     * Constructs a lazy sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param initializer the builder of the real sender
+     */
+    public LazyMailSender(@Nonnull String name, @Nonnull Supplier<DecoratedMailSender> initializer) {
+        super(name, initializer);
+    }
+}
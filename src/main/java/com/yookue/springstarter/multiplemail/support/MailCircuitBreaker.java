@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import jakarta.annotation.Nonnull;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+
+
+/**
+ * Count-based circuit breaker of a mail sender
+ * <p>
+ * The breaker opens when the failure rate or the slow call rate of the recent calls exceeds the threshold,
+ * rejects the calls for the open duration, and then permits a few probing calls in half-open state to decide whether to close or to open again.
+ *
+ * @author David Hsing
+ */
+@SuppressWarnings("unused")
+public class MailCircuitBreaker {
+    private final int windowSize;
+    private final int minimumCalls;
+    private final float failureRateThreshold;
+    private final long slowCallNanos;
+    private final float slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    // Ring buffer of the recent outcomes, bit 0 means failure, bit 1 means slow call
+    private final byte[] outcomes;
+    private int outcomeIndex, outcomeCount, failureCount, slowCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probePermits, probeSuccesses;
+
+    public MailCircuitBreaker(@Nonnull MultipleMailProperties.CircuitBreaker properties) {
+        Assert.isTrue(properties.getWindowSize() != null && properties.getWindowSize() > 0, "Window size must be positive");
+        this.windowSize = properties.getWindowSize();
+        this.minimumCalls = Math.max((properties.getMinimumCalls() == null) ? 1 : properties.getMinimumCalls(), 1);
+        this.failureRateThreshold = (properties.getFailureRateThreshold() == null) ? 50F : properties.getFailureRateThreshold();
+        this.slowCallNanos = toNanos(properties.getSlowCallDuration());
+        this.slowCallRateThreshold = (properties.getSlowCallRateThreshold() == null) ? 100F : properties.getSlowCallRateThreshold();
+        this.openNanos = toNanos(properties.getOpenDuration());
+        this.halfOpenCalls = Math.max((properties.getHalfOpenCalls() == null) ? 1 : properties.getHalfOpenCalls(), 1);
+        this.outcomes = new byte[windowSize];
+    }
+
+    /**
+     * Returns whether a call is permitted or not
+     * <p>
+     * Each permitted call must be followed by {@link #onSuccess(long)} or {@link #onFailure(long)}.
+     *
+     * @return whether a call is permitted or not
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case OPEN -> {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probePermits = halfOpenCalls - 1;
+                probeSuccesses = 0;
+                return true;
+            }
+            case HALF_OPEN -> {
+                if (probePermits <= 0) {
+                    return false;
+                }
+                probePermits--;
+                return true;
+            }
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records a successful call
+     *
+     * @param elapsedNanos the elapsed nanoseconds of the call
+     */
+    public synchronized void onSuccess(long elapsedNanos) {
+        record(false, isSlow(elapsedNanos));
+    }
+
+    /**
+     * Records a failed call
+     *
+     * @param elapsedNanos the elapsed nanoseconds of the call
+     */
+    public synchronized void onFailure(long elapsedNanos) {
+        record(true, isSlow(elapsedNanos));
+    }
+
+    @Nonnull
+    public synchronized State getState() {
+        return state;
+    }
+
+    private boolean isSlow(long elapsedNanos) {
+        return slowCallNanos > 0L && elapsedNanos >= slowCallNanos;
+    }
+
+    private void record(boolean failure, boolean slow) {
+        if (state == State.OPEN) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (failure || slow) {
+                transitToOpen();
+            } else if (++probeSuccesses >= halfOpenCalls) {
+                transitToClosed();
+            }
+            return;
+        }
+        if (outcomeCount == windowSize) {
+            byte evicted = outcomes[outcomeIndex];
+            failureCount -= (evicted & 1);
+            slowCount -= (evicted >> 1) & 1;
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = (byte) ((failure ? 1 : 0) | (slow ? 2 : 0));
+        outcomeIndex = (outcomeIndex + 1) % windowSize;
+        failureCount += failure ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        if (outcomeCount >= minimumCalls && (failureCount * 100F / outcomeCount >= failureRateThreshold || (slowCallNanos > 0L && slowCount * 100F / outcomeCount >= slowCallRateThreshold))) {
+            transitToOpen();
+        }
+    }
+
+    private void transitToOpen() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void transitToClosed() {
+        state = State.CLOSED;
+        outcomeIndex = outcomeCount = failureCount = slowCount = 0;
+    }
+
+    private static long toNanos(Duration duration) {
+        return (duration == null) ? 0L : Math.max(duration.toNanos(), 0L);
+    }
+
+
+    /**
+     * Enumerations of circuit breaker state
+     *
+     * @author David Hsing
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+}
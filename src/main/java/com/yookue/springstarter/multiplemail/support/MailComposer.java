@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.mail.javamail.ConfigurableMimeFileTypeMap;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.util.Assert;
+import org.springframework.util.ConcurrentLruCache;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+
+
+/**
+ * Composer of mail bodies, with bounded caches of compiled templates and pre-encoded static parts
+ * <p>
+ * Templates and static parts are loaded by resource locations, such as {@code classpath:mail/welcome.html}, and kept in least recently used caches.
+ * A cached static part is encoded once and shared by all the messages, instead of encoding the same logo or footer for each message.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailTemplate
+ * @see com.yookue.springstarter.multiplemail.support.StaticMimePart
+ */
+@SuppressWarnings("unused")
+public class MailComposer {
+    private static final int DEFAULT_TEMPLATE_CACHE_SIZE = 256;
+    private static final int DEFAULT_PART_CACHE_SIZE = 64;
+    private final ResourceLoader resourceLoader;
+    private final Charset charset;
+    private final ConfigurableMimeFileTypeMap fileTypeMap = new ConfigurableMimeFileTypeMap();
+    private final ConcurrentLruCache<String, MailTemplate> templates;
+    private final ConcurrentLruCache<String, StaticMimePart> staticParts;
+
+    /**
+     * Constructs a composer
+     *
+     * @param resourceLoader the loader of templates and static parts
+     * @param properties the properties of the composer
+     */
+    public MailComposer(@Nonnull ResourceLoader resourceLoader, @Nonnull MultipleMailProperties.Composer properties) {
+        this.resourceLoader = resourceLoader;
+        this.charset = (properties.getCharset() != null) ? properties.getCharset() : StandardCharsets.UTF_8;
+        int templateCacheSize = (properties.getTemplateCacheSize() != null) ? properties.getTemplateCacheSize() : DEFAULT_TEMPLATE_CACHE_SIZE;
+        int partCacheSize = (properties.getPartCacheSize() != null) ? properties.getPartCacheSize() : DEFAULT_PART_CACHE_SIZE;
+        Assert.isTrue(templateCacheSize >= 0, "Composer template cache size must not be negative");
+        Assert.isTrue(partCacheSize >= 0, "Composer part cache size must not be negative");
+        this.templates = new ConcurrentLruCache<>(templateCacheSize, this::loadTemplate);
+        this.staticParts = new ConcurrentLruCache<>(partCacheSize, this::loadStaticPart);
+    }
+
+    /**
+     * Returns the compiled template of the location
+     *
+     * @param location the resource location of the template
+     *
+     * @return the compiled template of the location
+     *
+     * @throws IllegalStateException if the template could not be read
+     */
+    @Nonnull
+    public MailTemplate getTemplate(@Nonnull String location) throws IllegalStateException {
+        return templates.get(location);
+    }
+
+    /**
+     * Returns the content that rendered by the template of the location
+     *
+     * @param location the resource location of the template
+     * @param model the values of the placeholders
+     *
+     * @return the content that rendered by the template of the location
+     *
+     * @throws IllegalStateException if the template could not be read
+     */
+    @Nonnull
+    public String render(@Nonnull String location, @Nullable Map<String, ?> model) throws IllegalStateException {
+        return getTemplate(location).render(model);
+    }
+
+    /**
+     * Returns the pre-encoded static part of the location
+     *
+     * @param location the resource location of the static part
+     *
+     * @return the pre-encoded static part of the location
+     *
+     * @throws IllegalStateException if the static part could not be read
+     */
+    @Nonnull
+    public StaticMimePart getStaticPart(@Nonnull String location) throws IllegalStateException {
+        return staticParts.get(location);
+    }
+
+    /**
+     * Returns a multipart helper of the message, with the text that rendered by the template of the location
+     *
+     * @param message the message to compose
+     * @param location the resource location of the template
+     * @param model the values of the placeholders
+     * @param html whether the text is html or not
+     *
+     * @return a multipart helper of the message, for adding inline parts and attachments
+     *
+     * @throws MessagingException if the text could not be set
+     * @throws IllegalStateException if the template could not be read
+     */
+    @Nonnull
+    public MimeMessageHelper compose(@Nonnull MimeMessage message, @Nonnull String location, @Nullable Map<String, ?> model, boolean html) throws MessagingException, IllegalStateException {
+        MimeMessageHelper helper = new MimeMessageHelper(message, MimeMessageHelper.MULTIPART_MODE_MIXED_RELATED, charset.name());
+        helper.setText(render(location, model), html);
+        return helper;
+    }
+
+    /**
+     * Adds the static part of the location as an inline part, that could be referenced by {@code cid:contentId}
+     *
+     * @param helper the helper that created by {@link #compose(MimeMessage, String, Map, boolean)}
+     * @param contentId the content id of the part
+     * @param location the resource location of the static part
+     *
+     * @throws MessagingException if the part could not be added
+     * @throws IllegalStateException if the static part could not be read
+     */
+    public void addInline(@Nonnull MimeMessageHelper helper, @Nonnull String contentId, @Nonnull String location) throws MessagingException, IllegalStateException {
+        helper.getMimeMultipart().addBodyPart(getStaticPart(location).createBodyPart(contentId));
+    }
+
+    /**
+     * Adds the static part of the location as an attachment
+     *
+     * @param helper the helper that created by {@link #compose(MimeMessage, String, Map, boolean)}
+     * @param location the resource location of the static part
+     *
+     * @throws MessagingException if the part could not be added
+     * @throws IllegalStateException if the static part could not be read
+     */
+    public void addAttachment(@Nonnull MimeMessageHelper helper, @Nonnull String location) throws MessagingException, IllegalStateException {
+        helper.getRootMimeMultipart().addBodyPart(getStaticPart(location).createBodyPart(null));
+    }
+
+    /**
+     * Removes the cached template and static part of the location, so that they will be loaded again on next use
+     *
+     * @param location the resource location to evict
+     */
+    public void evict(@Nonnull String location) {
+        templates.remove(location);
+        staticParts.remove(location);
+    }
+
+    /**
+     * Removes all the cached templates and static parts
+     */
+    public void clear() {
+        templates.clear();
+        staticParts.clear();
+    }
+
+    public int getTemplateCount() {
+        return templates.size();
+    }
+
+    public int getStaticPartCount() {
+        return staticParts.size();
+    }
+
+    @Nonnull
+    private MailTemplate loadTemplate(@Nonnull String location) {
+        try {
+            return MailTemplate.compile(resourceLoader.getResource(location).getContentAsString(charset));
+        } catch (IOException ex) {
+            throw new IllegalStateException(String.format("Failed to read mail template '%s'", location), ex);
+        }
+    }
+
+    @Nonnull
+    private StaticMimePart loadStaticPart(@Nonnull String location) {
+        Resource resource = resourceLoader.getResource(location);
+        try {
+            String filename = resource.getFilename();
+            String contentType = (filename != null) ? fileTypeMap.getContentType(filename) : "application/octet-stream";
+            return new StaticMimePart(resource.getContentAsByteArray(), contentType, filename);
+        } catch (IOException ex) {
+            throw new IllegalStateException(String.format("Failed to read mail part '%s'", location), ex);
+        }
+    }
+}
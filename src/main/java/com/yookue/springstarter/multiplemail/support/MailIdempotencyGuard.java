@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Idempotency guard of a mail sender, that drops the messages whose keys have been claimed
+ * <p>
+ * The keys are claimed in a bounded concurrent cache, each claim expires after the ttl, and the earliest claims are evicted when the cache is full.
+ * Since all the claims share the same ttl, the claiming order is also the expiring order, so the evictions cost a queue poll each.
+ * An optional {@link com.yookue.springstarter.multiplemail.support.MailIdempotencyStore} is consulted when a key is not in the cache,
+ * if the store fails, the message is sent rather than dropped.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailIdempotencyStore
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailIdempotencyGuard {
+    private final String name;
+    private final String keyHeader;
+    private final boolean messageId;
+    private final int maxSize;
+    private final Duration ttl;
+    private final long ttlNanos;
+    private final Map<String, Long> claims = new ConcurrentHashMap<>();
+    private final Queue<Claim> claimOrder = new ConcurrentLinkedQueue<>();
+    private volatile MailIdempotencyStore store;
+
+    public MailIdempotencyGuard(@Nonnull String name, @Nonnull MailSenderProperties.Idempotency properties) {
+        Assert.isTrue(properties.getMaxSize() != null && properties.getMaxSize() > 0, "Idempotency max size must be positive");
+        Assert.isTrue(properties.getTtl() != null && !properties.getTtl().isNegative() && !properties.getTtl().isZero(), "Idempotency ttl must be positive");
+        this.name = name;
+        this.keyHeader = properties.getKeyHeader();
+        this.messageId = Boolean.TRUE.equals(properties.getMessageId());
+        this.maxSize = properties.getMaxSize();
+        this.ttl = properties.getTtl();
+        this.ttlNanos = properties.getTtl().toNanos();
+    }
+
+    /**
+     * Returns the idempotency key of the message, from the key header, or from the {@code Message-ID} header if enabled
+     *
+     * @param message the message to send
+     *
+     * @return the idempotency key of the message, or {@code null} if the message has no key
+     */
+    @Nullable
+    public String resolveKey(@Nonnull MimeMessage message) {
+        try {
+            if (StringUtils.hasText(keyHeader)) {
+                String result = message.getHeader(keyHeader, null);
+                if (StringUtils.hasText(result)) {
+                    return result.trim();
+                }
+            }
+            if (messageId) {
+                String result = message.getHeader("Message-ID", null);
+                if (StringUtils.hasText(result)) {
+                    return result.trim();
+                }
+            }
+        } catch (MessagingException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * Claims the key, returns {@code false} if the key has been claimed and not expired
+     *
+     * @param key the idempotency key
+     *
+     * @return whether the key is claimed by this call or not
+     */
+    public boolean tryClaim(@Nonnull String key) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        long expiry = now + ttlNanos;
+        Long existing = claims.putIfAbsent(key, expiry);
+        if (existing != null && (existing - now > 0L || !claims.replace(key, existing, expiry))) {
+            return false;
+        }
+        claimOrder.offer(new Claim(key, expiry));
+        while (claims.size() > maxSize) {
+            Claim eldest = claimOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            claims.remove(eldest.key(), eldest.expiry());
+        }
+        MailIdempotencyStore current = store;
+        if (current == null) {
+            return true;
+        }
+        try {
+            // A key claimed by the store is kept in the cache too, so that the next duplicate is dropped without the store
+            return current.claim(key, ttl);
+        } catch (RuntimeException ex) {
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Idempotency store of mail sender '%s' failed to claim key '%s'", name, key), ex);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Releases the key that claimed before, so that the message could be sent again, usually after a failed sending
+     *
+     * @param key the idempotency key
+     */
+    public void release(@Nonnull String key) {
+        Long expiry = claims.remove(key);
+        if (expiry != null) {
+            // Otherwise each reclaim after a failed sending would leave a stale claim in the order until the ttl, a linear removal is fine on the failure path
+            claimOrder.remove(new Claim(key, expiry));
+        }
+        MailIdempotencyStore current = store;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.release(key);
+        } catch (RuntimeException ex) {
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Idempotency store of mail sender '%s' failed to release key '%s'", name, key), ex);
+            }
+        }
+    }
+
+    /**
+     * Copies the unexpired claims of the previous guard, such as after the sender is reloaded
+     *
+     * @param previous the previous guard of the same sender
+     */
+    public void inherit(@Nonnull MailIdempotencyGuard previous) {
+        long now = System.nanoTime();
+        for (Claim claim : previous.claimOrder) {
+            Long expiry = previous.claims.get(claim.key());
+            if (expiry != null && expiry == claim.expiry() && expiry - now > 0L && claims.putIfAbsent(claim.key(), expiry) == null) {
+                claimOrder.offer(claim);
+            }
+        }
+        if (store == null) {
+            store = previous.store;
+        }
+    }
+
+    /**
+     * Removes all the claims in the cache, the store is not changed
+     */
+    public void clear() {
+        claims.clear();
+        claimOrder.clear();
+    }
+
+    public int size() {
+        return claims.size();
+    }
+
+    @Nullable
+    public MailIdempotencyStore getStore() {
+        return store;
+    }
+
+    public void setStore(@Nullable MailIdempotencyStore store) {
+        this.store = store;
+    }
+
+    private void evictExpired(long now) {
+        for (Claim eldest = claimOrder.peek(); eldest != null && eldest.expiry() - now <= 0L; eldest = claimOrder.peek()) {
+            if (claimOrder.remove(eldest)) {
+                claims.remove(eldest.key(), eldest.expiry());
+            }
+        }
+    }
+
+
+    private record Claim(@Nonnull String key, long expiry) {
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import jakarta.annotation.Nonnull;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * {@link org.springframework.beans.factory.config.BeanPostProcessor} that attaches the idempotency store to the idempotency guards of the mail senders
+ * <p>
+ * Only the senders named with suffix {@code MailSender} are processed, and nothing is changed if there is no unique
+ * {@link com.yookue.springstarter.multiplemail.support.MailIdempotencyStore}.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailIdempotencyGuard
+ */
+@SuppressWarnings("unused")
+public class MailIdempotencyPostProcessor implements BeanPostProcessor {
+    private final ObjectProvider<MailIdempotencyStore> idempotencyStore;
+
+    public MailIdempotencyPostProcessor(@Nonnull ObjectProvider<MailIdempotencyStore> idempotencyStore) {
+        this.idempotencyStore = idempotencyStore;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(@Nonnull Object bean, @Nonnull String beanName) throws BeansException {
+        if (!beanName.endsWith(MailSenderUtils.MAIL_SENDER_SUFFIX)) {
+            return bean;
+        }
+        if (bean instanceof ReloadableMailSender reloadable) {
+            MailIdempotencyStore store = idempotencyStore.getIfUnique();
+            if (store != null) {
+                reloadable.setIdempotencyStore(store);
+            }
+        } else if (bean instanceof DecoratedMailSender decorated && decorated.getIdempotencyGuard() != null) {
+            MailIdempotencyStore store = idempotencyStore.getIfUnique();
+            if (store != null) {
+                decorated.getIdempotencyGuard().setStore(store);
+            }
+        }
+        return bean;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import jakarta.annotation.Nonnull;
+
+
+/**
+ * Persistent store of idempotency keys, shared by the idempotency guards of the senders
+ * <p>
+ * The store is consulted only when a key is not claimed in the local cache, so it is hit once for each key and each JVM at most.
+ * Implementations could be backed by a database table with a unique key, or a {@code SET NX PX} command of redis.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailIdempotencyGuard
+ */
+public interface MailIdempotencyStore {
+    /**
+     * Claims the key atomically
+     *
+     * @param key the idempotency key
+     * @param ttl the duration that the claim should be kept
+     *
+     * @return whether the key is claimed by this call, {@code false} means the key has been claimed
+     */
+    boolean claim(@Nonnull String key, @Nonnull Duration ttl);
+
+    /**
+     * Releases the key that claimed before, so that the message could be sent again
+     *
+     * @param key the idempotency key
+     */
+    void release(@Nonnull String key);
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Mail merge that builds personalized messages from a stream of records in parallel, and feeds them into a batch sender
+ * <p>
+ * The records are pulled only when there is a free permit, each permit is held from building a message until the message is sent,
+ * so that at most {@code maxPending} messages are in memory, regardless of the number of records.
+ * The common parts should be shared across the messages, such as by the caches of {@link MailComposer}.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.BatchMailSender
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailMerge {
+    private static final int MAX_FAILURES = 100;
+
+    private final String name;
+    private final BatchMailSender batchSender;
+    private final int parallelism;
+    private final int maxPending;
+
+    /**
+     * Constructs a mail merge
+     *
+     * @param name the name of the mail merge, as the prefix of thread names
+     * @param batchSender the batch sender to send the messages
+     * @param parallelism the maximum number of messages that building at the same time
+     * @param maxPending the maximum number of messages that built but not sent yet
+     */
+    public MailMerge(@Nonnull String name, @Nonnull BatchMailSender batchSender, int parallelism, int maxPending) {
+        Assert.isTrue(parallelism > 0, "Mail merge parallelism must be positive");
+        Assert.isTrue(maxPending >= parallelism, "Mail merge max pending must not be less than parallelism");
+        this.name = name;
+        this.batchSender = batchSender;
+        this.parallelism = parallelism;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Builds and sends a message for each record, without waiting for the completion
+     * <p>
+     * The stream is consumed by a background thread and closed after the last record. Cancelling the future stops pulling more records.
+     *
+     * @param records the records of the recipients
+     * @param assembler the assembler that builds a message for a record
+     * @param <T> the type of records
+     *
+     * @return a future that completes with the result when all the pulled records have been sent or failed, never completes exceptionally
+     */
+    @Nonnull
+    public <T> CompletableFuture<Result> send(@Nonnull Stream<? extends T> records, @Nonnull Assembler<? super T> assembler) {
+        Run<T> run = new Run<>(records, assembler);
+        Thread driver = new Thread(run::drive, name + "-driver");
+        driver.setDaemon(true);
+        driver.start();
+        return run.future;
+    }
+
+
+    /**
+     * Assembler that builds a message for a record
+     *
+     * @author David Hsing
+     */
+    @FunctionalInterface
+    public interface Assembler<T> {
+        /**
+         * Fills the message with the record
+         *
+         * @param message the empty message that created by the batch sender
+         * @param record the record of the recipient
+         *
+         * @throws MessagingException if the message could not be built
+         */
+        void assemble(@Nonnull MimeMessage message, @Nonnull T record) throws MessagingException;
+    }
+
+
+    /**
+     * Result of a mail merge
+     *
+     * @author David Hsing
+     */
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @Getter
+    @ToString
+    public static class Result {
+        private final long total;
+        private final long sent;
+        private final long failed;
+
+        /**
+         * The first failures, at most {@code 100}
+         */
+        @ToString.Exclude
+        private final List<Failure> failures;
+    }
+
+
+    /**
+     * Failure of a record
+     *
+     * @param record the record that failed
+     * @param error the cause of the failure
+     */
+    public record Failure(Object record, Throwable error) {
+    }
+
+
+    /**
+     * State of a running mail merge
+     *
+     * @author David Hsing
+     */
+    private class Run<T> {
+        private final Stream<? extends T> records;
+        private final Assembler<? super T> assembler;
+        private final CompletableFuture<Result> future = new CompletableFuture<>();
+        private final Semaphore pendingPermits = new Semaphore(maxPending);
+        private final Semaphore buildPermits = new Semaphore(parallelism);
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        private long total;
+
+        private Run(@Nonnull Stream<? extends T> records, @Nonnull Assembler<? super T> assembler) {
+            this.records = records;
+            this.assembler = assembler;
+        }
+
+        private void drive() {
+            AsyncTaskExecutor executor = MailSenderUtils.createTaskExecutor(name + "-", parallelism, true);
+            try (records) {
+                Iterator<? extends T> iterator = records.iterator();
+                while (!future.isDone()) {
+                    pendingPermits.acquire();
+                    if (future.isDone() || !iterator.hasNext()) {
+                        pendingPermits.release();
+                        break;
+                    }
+                    T record = iterator.next();
+                    total++;
+                    buildPermits.acquire();
+                    try {
+                        executor.execute(() -> build(record));
+                    } catch (RuntimeException ex) {
+                        // The executor would reject the rest as well
+                        buildPermits.release();
+                        fail(record, ex);
+                        throw ex;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ex) {
+                if (log.isErrorEnabled()) {
+                    log.error(String.format("Unexpected error of mail merge '%s'", name), ex);
+                }
+            } finally {
+                awaitPending();
+                MailSenderUtils.closeTaskExecutor(executor);
+            }
+            future.complete(new Result(total, sent.get(), failed.get(), List.copyOf(failures)));
+        }
+
+        private void awaitPending() {
+            try {
+                pendingPermits.acquire(maxPending);
+                pendingPermits.release(maxPending);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void build(@Nonnull T record) {
+            MimeMessage message;
+            try {
+                message = batchSender.createMimeMessage();
+                assembler.assemble(message, record);
+            } catch (Throwable ex) {
+                fail(record, ex);
+                return;
+            } finally {
+                buildPermits.release();
+            }
+            batchSender.send(message).whenComplete((ignored, ex) -> {
+                if (ex == null) {
+                    sent.incrementAndGet();
+                    pendingPermits.release();
+                } else {
+                    fail(record, ex);
+                }
+            });
+        }
+
+        private void fail(@Nonnull T record, @Nonnull Throwable error) {
+            failed.incrementAndGet();
+            if (failures.size() < MAX_FAILURES) {
+                failures.add(new Failure(record, error));
+            }
+            pendingPermits.release();
+        }
+    }
+}
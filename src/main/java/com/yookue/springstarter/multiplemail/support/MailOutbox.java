@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Durable outbox of a mail sender, backed by an append-only journal
+ * <p>
+ * Messages are appended to the journal segments by a single writer thread, which writes all the queued records and then forces them to disk once (group commit).
+ * Background workers send the messages and append their ids to the acknowledgement files, a segment is deleted after all its records are acknowledged.
+ * On startup, the records that are not acknowledged are sent again, so the delivery is at-least-once.
+ * Only the positions of the pending records are kept in memory, the workers read the messages back from the journal, so that a long outage of the relay does not fill the heap.
+ * <p>
+ * Record layout: {@code [int length][int crc32][long id][bytes]}, a torn record at the tail of a segment is discarded on recovery.
+ *
+ * @author David Hsing
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailOutbox implements DisposableBean {
+    private static final String LOG_SUFFIX = ".log";    // $NON-NLS-1$
+    private static final String ACK_SUFFIX = ".ack";    // $NON-NLS-1$
+    private static final String DEAD_DIRECTORY = "dead";    // $NON-NLS-1$
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final long POLL_MILLIS = 100L;
+
+    private final String name;
+    private final JavaMailSender mailSender;
+    private final MailSenderProperties.Outbox properties;
+    private final Path directory;
+    private final AtomicLong recordSequence = new AtomicLong();
+    private final BlockingQueue<Object> commands = new LinkedBlockingQueue<>();
+    private final BlockingQueue<PendingRecord> pendingRecords = new LinkedBlockingQueue<>();
+    private final Map<Long, Segment> segments = new TreeMap<>();
+    private final Thread writer;
+    private final AsyncTaskExecutor workers;
+    private final ScheduledExecutorService retryScheduler;
+    private Segment activeSegment;
+    private volatile boolean running = true;
+    private volatile boolean writerExited;
+
+    /**
+     * Constructs an outbox, and recovers the records that are not acknowledged
+     *
+     * @param name the name of the outbox, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the outbox properties
+     *
+     * @throws UncheckedIOException if failed to recover the journal
+     */
+    public MailOutbox(@Nonnull String name, @Nonnull JavaMailSender mailSender, @Nonnull MailSenderProperties.Outbox properties) {
+        Assert.isTrue(properties.getWorkers() != null && properties.getWorkers() > 0, "Outbox workers must be positive");
+        Assert.hasText(properties.getDirectory(), String.format("Outbox directory of '%s' must be set, to a persistent directory rather than a temporary one", name));
+        this.name = name;
+        this.mailSender = mailSender;
+        this.properties = properties;
+        this.directory = Paths.get(properties.getDirectory());
+        try {
+            Files.createDirectories(directory);
+            recover();
+            activeSegment = openSegment(recordSequence.get());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(String.format("Failed to open outbox '%s' at '%s'", name, directory), ex);
+        }
+        CustomizableThreadFactory factory = new CustomizableThreadFactory(name + "-retry-");
+        factory.setDaemon(true);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(factory);
+        this.writer = new Thread(this::write, name + "-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.workers = MailSenderUtils.createTaskExecutor(name + "-worker-", properties.getWorkers(), true);
+        for (int i = 0; i < properties.getWorkers(); i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Appends the message to the journal
+     * <p>
+     * This method returns at once, the future completes when the message is durable on disk.
+     *
+     * @param mimeMessage the message to send
+     *
+     * @return a future that completes with the record id when the message is durable on disk
+     */
+    @Nonnull
+    public CompletableFuture<Long> enqueue(@Nonnull MimeMessage mimeMessage) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException(String.format("Outbox '%s' has been shut down", name)));
+            return future;
+        }
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            mimeMessage.writeTo(output);
+            AppendCommand command = new AppendCommand(recordSequence.incrementAndGet(), output.toByteArray(), future);
+            commands.add(command);
+            if (writerExited && commands.remove(command)) {
+                // Added after the writer has exited, nobody would write it
+                future.completeExceptionally(new IllegalStateException(String.format("Outbox '%s' has been shut down", name)));
+            }
+        } catch (IOException | MessagingException ex) {
+            future.completeExceptionally(new MailPreparationException("Failed to serialize message", ex));
+        }
+        return future;
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    /**
+     * Returns the number of messages that waiting for sending
+     *
+     * @return the number of messages that waiting for sending
+     */
+    public int getPendingCount() {
+        return pendingRecords.size();
+    }
+
+    @Nonnull
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void recover() throws IOException {
+        List<Path> logs;
+        try (Stream<Path> stream = Files.list(directory)) {
+            logs = stream.filter(path -> path.getFileName().toString().endsWith(LOG_SUFFIX)).sorted().toList();
+        }
+        for (Path logPath : logs) {
+            String segmentName = logPath.getFileName().toString().replace(LOG_SUFFIX, "");
+            long segmentId = Long.parseLong(segmentName);
+            Path ackPath = logPath.resolveSibling(segmentName + ACK_SUFFIX);
+            Set<Long> acked = readAcks(ackPath);
+            Segment segment = new Segment(segmentId, logPath, ackPath, null, null);
+            segment.sealed = true;
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                long position = 0L, size = channel.size();
+                while (position + HEADER_BYTES <= size) {
+                    header.clear();
+                    channel.read(header, position);
+                    header.flip();
+                    int length = header.getInt();
+                    int crc = header.getInt();
+                    long id = header.getLong();
+                    if (length < 0 || position + HEADER_BYTES + length > size) {
+                        break;
+                    }
+                    ByteBuffer body = ByteBuffer.allocate(length);
+                    channel.read(body, position + HEADER_BYTES);
+                    if (checksum(body.array()) != crc) {
+                        break;
+                    }
+                    recordSequence.accumulateAndGet(id, Math::max);
+                    segment.records++;
+                    if (acked.contains(id)) {
+                        segment.acked++;
+                    } else {
+                        pendingRecords.add(new PendingRecord(segmentId, id, position, length, 0));
+                    }
+                    position += HEADER_BYTES + length;
+                }
+                if (position < size) {
+                    // Discards the torn record at the tail
+                    channel.truncate(position);
+                }
+            }
+            if (segment.isCompleted()) {
+                deleteSegment(segment);
+            } else {
+                segments.put(segmentId, segment);
+            }
+        }
+        if (!pendingRecords.isEmpty() && log.isInfoEnabled()) {
+            log.info(String.format("Outbox '%s' recovered %d pending messages", name, pendingRecords.size()));
+        }
+    }
+
+    @Nonnull
+    private Set<Long> readAcks(@Nonnull Path ack) throws IOException {
+        Set<Long> result = new HashSet<>();
+        if (Files.exists(ack)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(ack));
+            while (buffer.remaining() >= Long.BYTES) {
+                result.add(buffer.getLong());
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    private Segment openSegment(long segmentId) throws IOException {
+        String segmentName = String.format("%020d", segmentId);
+        Path logPath = directory.resolve(segmentName + LOG_SUFFIX);
+        Path ackPath = directory.resolve(segmentName + ACK_SUFFIX);
+        FileChannel logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        FileChannel ackChannel = FileChannel.open(ackPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        Segment segment = new Segment(segmentId, logPath, ackPath, logChannel, ackChannel);
+        segment.size = logChannel.size();
+        segments.put(segmentId, segment);
+        return segment;
+    }
+
+    private void write() {
+        List<Object> batch = new ArrayList<>();
+        while (running || !commands.isEmpty()) {
+            try {
+                Object first = commands.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                commands.drainTo(batch);
+                writeBatch(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable ex) {
+                if (log.isErrorEnabled()) {
+                    log.error(String.format("Unexpected error of outbox '%s'", name), ex);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        // Marks before failing the remaining, so that a command added after that would be failed by its caller
+        writerExited = true;
+        for (Object command = commands.poll(); command != null; command = commands.poll()) {
+            if (command instanceof AppendCommand append) {
+                append.future.completeExceptionally(new IllegalStateException(String.format("Outbox '%s' has been shut down", name)));
+            }
+        }
+        segments.values().forEach(Segment::closeQuietly);
+    }
+
+    private void writeBatch(@Nonnull List<Object> batch) throws IOException {
+        List<AppendCommand> appended = new ArrayList<>();
+        List<PendingRecord> records = new ArrayList<>();
+        Map<Segment, SegmentMark> dirtySegments = new LinkedHashMap<>();
+        try {
+            for (Object command : batch) {
+                if (command instanceof AppendCommand append) {
+                    rollSegmentIfNeeded();
+                    Segment segment = activeSegment;
+                    dirtySegments.computeIfAbsent(segment, element -> new SegmentMark(element.size, element.records));
+                    long position = segment.size;
+                    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + append.bytes.length);
+                    buffer.putInt(append.bytes.length).putInt(checksum(append.bytes)).putLong(append.id).put(append.bytes).flip();
+                    while (buffer.hasRemaining()) {
+                        segment.logChannel.write(buffer);
+                    }
+                    segment.size += HEADER_BYTES + append.bytes.length;
+                    segment.records++;
+                    appended.add(append);
+                    records.add(new PendingRecord(segment.id, append.id, position, append.bytes.length, 0));
+                } else if (command instanceof AckCommand ack) {
+                    writeAck(ack);
+                }
+            }
+            for (Segment segment : dirtySegments.keySet()) {
+                segment.logChannel.force(false);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Rolls back the records of the batch, otherwise recovery would stop at the torn record and discard the durable ones after it
+            dirtySegments.forEach(this::rollbackSegment);
+            for (Object command : batch) {
+                if (command instanceof AppendCommand append) {
+                    append.future.completeExceptionally(ex);
+                }
+            }
+            throw ex;
+        }
+        pendingRecords.addAll(records);
+        appended.forEach(append -> append.future.complete(append.id));
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.sealed && segment.isCompleted()) {
+                segments.remove(segment.id);
+                deleteSegment(segment);
+            }
+        }
+    }
+
+    private void writeAck(@Nonnull AckCommand ack) {
+        Segment segment = segments.get(ack.segmentId);
+        if (segment == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, ack.recordId);
+        try {
+            if (segment.ackChannel != null) {
+                long position = segment.ackChannel.size();
+                try {
+                    while (buffer.hasRemaining()) {
+                        segment.ackChannel.write(buffer);
+                    }
+                } catch (IOException ex) {
+                    // Keeps the acknowledgements aligned to longs
+                    segment.ackChannel.truncate(position);
+                    throw ex;
+                }
+            } else {
+                Files.write(segment.ackPath, buffer.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            segment.acked++;
+        } catch (IOException ex) {
+            // The record is sent again on recovery
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Outbox '%s' failed to acknowledge message %d", name, ack.recordId), ex);
+            }
+        }
+    }
+
+    private void rollbackSegment(@Nonnull Segment segment, @Nonnull SegmentMark mark) {
+        segment.size = mark.size;
+        segment.records = mark.records;
+        try {
+            segment.logChannel.truncate(mark.size);
+        } catch (IOException ex) {
+            // The torn tail is discarded on recovery, as long as no record follows it
+            segment.sealed = true;
+            if (segment == activeSegment) {
+                try {
+                    activeSegment = openSegment(nextSegmentId());
+                } catch (IOException ioe) {
+                    ex.addSuppressed(ioe);
+                }
+            }
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Outbox '%s' failed to truncate segment %d, sealed it", name, segment.id), ex);
+            }
+        }
+    }
+
+    private void rollSegmentIfNeeded() throws IOException {
+        long segmentBytes = (properties.getSegmentSize() == null) ? Long.MAX_VALUE : properties.getSegmentSize().toBytes();
+        if (!activeSegment.sealed && activeSegment.size < segmentBytes) {
+            return;
+        }
+        Segment previous = activeSegment;
+        if (!previous.sealed) {
+            previous.sealed = true;
+            previous.logChannel.force(false);
+        }
+        activeSegment = openSegment(nextSegmentId());
+    }
+
+    private long nextSegmentId() {
+        // The records may be numbered before the active segment is opened, so the sequence alone is not unique
+        return Math.max(recordSequence.get(), activeSegment.id + 1L);
+    }
+
+    private void work() {
+        while (running) {
+            PendingRecord record;
+            try {
+                record = pendingRecords.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (record == null) {
+                continue;
+            }
+            byte[] bytes = null;
+            try {
+                bytes = readRecord(record);
+                mailSender.send(mailSender.createMimeMessage(new ByteArrayInputStream(bytes)));
+                commands.add(new AckCommand(record.segmentId, record.id));
+            } catch (Exception ex) {
+                handleFailure(record, bytes, ex);
+            }
+        }
+    }
+
+    /**
+     * Reads the body of the record back from the journal, the segment is not deleted until the record is acknowledged
+     */
+    @Nonnull
+    private byte[] readRecord(@Nonnull PendingRecord record) throws IOException {
+        Path logPath = directory.resolve(String.format("%020d", record.segmentId) + LOG_SUFFIX);
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(record.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, record.position + HEADER_BYTES + buffer.position()) < 0) {
+                    throw new EOFException(String.format("Message %d is truncated in '%s'", record.id, logPath));
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    private void handleFailure(@Nonnull PendingRecord record, @Nullable byte[] bytes, @Nonnull Exception ex) {
+        int attempts = record.attempts + 1;
+        int maxAttempts = (properties.getMaxAttempts() == null) ? 1 : properties.getMaxAttempts();
+        if (attempts < maxAttempts && !running) {
+            // Leaves the record to the recovery of next startup
+            return;
+        }
+        if (attempts < maxAttempts) {
+            Duration delay = (properties.getRetryDelay() == null) ? Duration.ZERO : properties.getRetryDelay();
+            long millis = delay.toMillis() << Math.min(attempts - 1, 16);
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Outbox '%s' failed to send message %d, retrying in %d ms", name, record.id, millis), ex);
+            }
+            retryScheduler.schedule(() -> pendingRecords.add(new PendingRecord(record.segmentId, record.id, record.position, record.length, attempts)), millis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (bytes != null) {
+            try {
+                Path dead = directory.resolve(DEAD_DIRECTORY);
+                Files.createDirectories(dead);
+                Files.write(dead.resolve(record.id + ".eml"), bytes);
+            } catch (IOException ioe) {
+                ex.addSuppressed(ioe);
+            }
+        }
+        if (log.isErrorEnabled()) {
+            log.error(String.format("Outbox '%s' gave up sending message %d after %d attempts", name, record.id, attempts), ex);
+        }
+        commands.add(new AckCommand(record.segmentId, record.id));
+    }
+
+    private void deleteSegment(@Nonnull Segment segment) throws IOException {
+        segment.closeQuietly();
+        Files.deleteIfExists(segment.logPath);
+        Files.deleteIfExists(segment.ackPath);
+    }
+
+    private static int checksum(@Nonnull byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        retryScheduler.shutdownNow();
+        MailSenderUtils.closeTaskExecutor(workers);
+        writer.join(TimeUnit.SECONDS.toMillis(30L));
+    }
+
+
+    private record AppendCommand(long id, byte[] bytes, CompletableFuture<Long> future) {
+    }
+
+
+    private record AckCommand(long segmentId, long recordId) {
+    }
+
+
+    private record SegmentMark(long size, int records) {
+    }
+
+
+    private record PendingRecord(long segmentId, long id, long position, int length, int attempts) {
+    }
+
+
+    private static class Segment {
+        private final long id;
+        private final Path logPath;
+        private final Path ackPath;
+        private final FileChannel logChannel;
+        private final FileChannel ackChannel;
+        private long size;
+        private int records;
+        private int acked;
+        private boolean sealed;
+
+        private Segment(long id, @Nonnull Path logPath, @Nonnull Path ackPath, FileChannel logChannel, FileChannel ackChannel) {
+            this.id = id;
+            this.logPath = logPath;
+            this.ackPath = ackPath;
+            this.logChannel = logChannel;
+            this.ackChannel = ackChannel;
+        }
+
+        private boolean isCompleted() {
+            return acked >= records;
+        }
+
+        private void closeQuietly() {
+            try {
+                if (logChannel != null) {
+                    logChannel.close();
+                }
+                if (ackChannel != null) {
+                    ackChannel.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
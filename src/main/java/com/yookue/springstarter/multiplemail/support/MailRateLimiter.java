@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import jakarta.annotation.Nonnull;
+import org.springframework.mail.MailSendException;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+
+
+/**
+ * Lock-free token bucket rate limiter of a mail sender
+ * <p>
+ * The bucket is tracked as the time when all the consumed tokens are refilled (GCRA), and updated with compare-and-set only.
+ * A caller reserves its tokens first, then parks until the reservation is due, or is rejected at once if the wait exceeds the max wait.
+ *
+ * @author David Hsing
+ */
+@SuppressWarnings("unused")
+public class MailRateLimiter {
+    private final String name;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long maxWaitNanos;
+    private final AtomicLong refilledNanos = new AtomicLong(System.nanoTime());
+
+    public MailRateLimiter(@Nonnull String name, @Nonnull MailSenderProperties.RateLimit properties) {
+        Assert.isTrue(properties.getPermits() != null && properties.getPermits() > 0, "Rate limit permits must be positive");
+        Assert.isTrue(properties.getPeriod() != null && !properties.getPeriod().isNegative() && !properties.getPeriod().isZero(), "Rate limit period must be positive");
+        int burst = (properties.getBurst() == null || properties.getBurst() <= 0) ? properties.getPermits() : properties.getBurst();
+        this.name = name;
+        this.intervalNanos = Math.max(properties.getPeriod().toNanos() / properties.getPermits(), 1L);
+        this.burstNanos = intervalNanos * burst;
+        Duration maxWait = properties.getMaxWait();
+        this.maxWaitNanos = (maxWait == null) ? 0L : Math.max(maxWait.toNanos(), 0L);
+    }
+
+    /**
+     * Returns whether the tokens are acquired without waiting or not
+     *
+     * @param tokens the number of tokens to acquire
+     *
+     * @return whether the tokens are acquired without waiting or not
+     */
+    public boolean tryAcquire(int tokens) {
+        return reserve(tokens, 0L) == 0L;
+    }
+
+    /**
+     * Acquires the tokens, parks the caller thread until they are available
+     *
+     * @param tokens the number of tokens to acquire
+     *
+     * @throws MailSendException if the wait exceeds the max wait, or the caller thread is interrupted
+     */
+    public void acquire(int tokens) throws MailSendException {
+        long waitNanos = reserve(tokens, maxWaitNanos);
+        if (waitNanos < 0L) {
+            throw new MailSendException(String.format("Rate limit of mail sender '%s' exceeded", name));
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        for (long remaining = waitNanos; remaining > 0L; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new MailSendException(String.format("Interrupted waiting for rate limit of mail sender '%s'", name));
+            }
+        }
+    }
+
+    /**
+     * Reserves the tokens if the wait does not exceed the max wait
+     *
+     * @return the nanoseconds to wait, or {@code -1} if the wait exceeds the max wait
+     */
+    private long reserve(int tokens, long maxWait) {
+        long cost = intervalNanos * Math.max(tokens, 1);
+        while (true) {
+            long now = System.nanoTime();
+            long current = refilledNanos.get();
+            // Tokens do not accumulate beyond the burst
+            long next = ((current - now > 0L) ? current : now) + cost;
+            long wait = Math.max(next - now - burstNanos, 0L);
+            if (wait > maxWait) {
+                return -1L;
+            }
+            if (refilledNanos.compareAndSet(current, next)) {
+                return wait;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import jakarta.annotation.Nonnull;
+import org.springframework.util.Assert;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Hashed timer wheel that runs short tasks after delays, with one thread and a fixed tick
+ * <p>
+ * Scheduling appends to a lock-free queue and costs O(1), the thread moves the new tasks into the buckets and expires a bucket on each tick.
+ * The tasks are run on the thread of the wheel, so they should hand over the real work to other executors.
+ * Compared with {@link java.util.concurrent.ScheduledThreadPoolExecutor}, there is no heap to maintain, at the cost of the precision of a tick.
+ *
+ * @author David Hsing
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailRetryTimer {
+    private static final int WHEEL_SIZE = 512;
+    private final long tickNanos;
+    private final List<Queue<Timeout>> buckets = new ArrayList<>(WHEEL_SIZE);
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * Constructs and starts a timer wheel
+     *
+     * @param name the name of the thread
+     * @param tickDuration the duration of a tick, also the precision of the delays
+     */
+    public MailRetryTimer(@Nonnull String name, @Nonnull Duration tickDuration) {
+        Assert.isTrue(!tickDuration.isNegative() && !tickDuration.isZero(), "Tick duration must be positive");
+        this.tickNanos = tickDuration.toNanos();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::work, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules the task to run after the delay
+     *
+     * @param task the task to run, should return quickly
+     * @param delayNanos the delay in nanoseconds
+     *
+     * @throws IllegalStateException if the timer has been stopped
+     */
+    public void schedule(@Nonnull Runnable task, long delayNanos) throws IllegalStateException {
+        Assert.state(running, "Timer has been stopped");
+        newTimeouts.offer(new Timeout(task, System.nanoTime() - startNanos + Math.max(delayNanos, 0L)));
+    }
+
+    /**
+     * Stops the timer, and returns the tasks that have not run
+     *
+     * @return the tasks that have not run
+     */
+    @Nonnull
+    public List<Runnable> stop() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10L));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> result = new ArrayList<>();
+        for (Queue<Timeout> bucket : buckets) {
+            bucket.forEach(timeout -> result.add(timeout.task));
+            bucket.clear();
+        }
+        for (Timeout timeout = newTimeouts.poll(); timeout != null; timeout = newTimeouts.poll()) {
+            result.add(timeout.task);
+        }
+        return result;
+    }
+
+    private void work() {
+        while (running) {
+            long deadline = (tick + 1L) * tickNanos;
+            for (long sleepNanos = deadline - (System.nanoTime() - startNanos); sleepNanos > 0L && running; sleepNanos = deadline - (System.nanoTime() - startNanos)) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            if (!running) {
+                break;
+            }
+            transferTimeouts();
+            expireTimeouts(buckets.get((int) (tick & (WHEEL_SIZE - 1))));
+            tick++;
+        }
+    }
+
+    private void transferTimeouts() {
+        for (Timeout timeout = newTimeouts.poll(); timeout != null; timeout = newTimeouts.poll()) {
+            long ticks = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (ticks - tick) / WHEEL_SIZE;
+            buckets.get((int) (ticks & (WHEEL_SIZE - 1))).add(timeout);
+        }
+    }
+
+    private void expireTimeouts(@Nonnull Queue<Timeout> bucket) {
+        for (Iterator<Timeout> iterator = bucket.iterator(); iterator.hasNext(); ) {
+            Timeout timeout = iterator.next();
+            if (timeout.remainingRounds > 0L) {
+                timeout.remainingRounds--;
+                continue;
+            }
+            iterator.remove();
+            try {
+                timeout.task.run();
+            } catch (Throwable ex) {
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Timer task '%s' failed", timeout.task), ex);
+                }
+            }
+        }
+    }
+
+
+    private static class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+
+        private Timeout(@Nonnull Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * Meters and observations of a mail sender
+ * <p>
+ * All the meters are tagged by {@code slot}, which is the bean name of the sender without suffix {@code MailSender}, such as {@code primary}.
+ * The meters are registered once on construction, so that recording a phase is a plain timer update.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MeteredSmtpTransport
+ */
+@SuppressWarnings("unused")
+public class MailSenderMetrics {
+    public static final String PHASE_DURATION = "mail.sender.phase";    // $NON-NLS-1$
+    public static final String MESSAGE_SIZE = "mail.sender.message.size";    // $NON-NLS-1$
+    public static final String ERRORS = "mail.sender.errors";    // $NON-NLS-1$
+    public static final String IN_FLIGHT = "mail.sender.in.flight";    // $NON-NLS-1$
+    public static final String OBSERVATION = "mail.send";    // $NON-NLS-1$
+    public static final String PHASE_CONNECT = "connect";    // $NON-NLS-1$
+    public static final String PHASE_AUTH = "auth";    // $NON-NLS-1$
+    public static final String PHASE_DATA = "data";    // $NON-NLS-1$
+    private static final String TAG_SLOT = "slot";    // $NON-NLS-1$
+    private static final String TAG_PHASE = "phase";    // $NON-NLS-1$
+    private static final String TAG_CODE = "code";    // $NON-NLS-1$
+
+    private final String slot;
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final Timer connectTimer;
+    private final Timer authTimer;
+    private final Timer dataTimer;
+    private final DistributionSummary sizeSummary;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Constructs the meters of a sender
+     *
+     * @param name the bean name of the sender
+     * @param meterRegistry the registry of the meters
+     * @param observationRegistry the registry of the observations, null or noop means no observation
+     * @param properties the metrics properties
+     */
+    public MailSenderMetrics(@Nonnull String name, @Nonnull MeterRegistry meterRegistry, @Nullable ObservationRegistry observationRegistry, @Nonnull MultipleMailProperties.Metrics properties) {
+        this.slot = name.endsWith(MailSenderUtils.MAIL_SENDER_SUFFIX) ? name.substring(0, name.length() - MailSenderUtils.MAIL_SENDER_SUFFIX.length()) : name;
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = (observationRegistry == null || observationRegistry.isNoop()) ? null : observationRegistry;
+        boolean histogram = Boolean.TRUE.equals(properties.getHistogram());
+        this.connectTimer = buildTimer(PHASE_CONNECT, histogram);
+        this.authTimer = buildTimer(PHASE_AUTH, histogram);
+        this.dataTimer = buildTimer(PHASE_DATA, histogram);
+        this.sizeSummary = DistributionSummary.builder(MESSAGE_SIZE).description("The size of the messages sent by mail sender").baseUnit("bytes").tag(TAG_SLOT, slot).publishPercentileHistogram(histogram).register(meterRegistry);
+        Gauge.builder(IN_FLIGHT, inFlight, AtomicInteger::get).description("The number of sending calls in progress of mail sender").tag(TAG_SLOT, slot).register(meterRegistry);
+    }
+
+    @Nonnull
+    private Timer buildTimer(@Nonnull String phase, boolean histogram) {
+        return Timer.builder(PHASE_DURATION).description("The duration of each SMTP phase of mail sender").tags(TAG_SLOT, slot, TAG_PHASE, phase).publishPercentileHistogram(histogram).register(meterRegistry);
+    }
+
+    /**
+     * Runs a sending call, with in-flight tracking and an observation span
+     *
+     * @param messageCount the number of messages of the call
+     * @param action the sending call
+     */
+    public void observeSend(int messageCount, @Nonnull Runnable action) {
+        inFlight.incrementAndGet();
+        try {
+            if (observationRegistry == null) {
+                action.run();
+            } else {
+                Observation.createNotStarted(OBSERVATION, observationRegistry)
+                    .contextualName(OBSERVATION + " " + slot)
+                    .lowCardinalityKeyValue(TAG_SLOT, slot)
+                    .highCardinalityKeyValue("mail.message.count", String.valueOf(messageCount))
+                    .observe(action);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public void recordConnect(long nanos) {
+        connectTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAuth(long nanos) {
+        authTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordData(long nanos, long size) {
+        dataTimer.record(nanos, TimeUnit.NANOSECONDS);
+        if (size >= 0L) {
+            sizeSummary.record(size);
+        }
+    }
+
+    /**
+     * Increases the error counter of the given phase and SMTP reply code
+     *
+     * @param phase the phase that the error occurred
+     * @param replyCode the SMTP reply code, non-positive means unknown
+     */
+    public void recordError(@Nonnull String phase, int replyCode) {
+        Counter.builder(ERRORS).description("The number of errors of mail sender").tags(TAG_SLOT, slot, TAG_PHASE, phase, TAG_CODE, (replyCode > 0) ? String.valueOf(replyCode) : "none").register(meterRegistry).increment();
+    }
+
+    @Nonnull
+    public String getSlot() {
+        return slot;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import jakarta.annotation.Nonnull;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+
+/**
+ * {@link org.springframework.beans.factory.config.BeanPostProcessor} that instruments the mail senders with metrics
+ * <p>
+ * Only the {@link org.springframework.mail.javamail.JavaMailSenderImpl} beans named with suffix {@code MailSender} and created by this starter are instrumented,
+ * the beans declared by the application are left as they are, and nothing is changed if there is no {@link io.micrometer.core.instrument.MeterRegistry}.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailSenderMetrics
+ */
+@SuppressWarnings("unused")
+public class MailSenderMetricsPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final ObjectProvider<ObservationRegistry> observationRegistry;
+    private final MultipleMailProperties.Metrics properties;
+    private BeanFactory beanFactory;
+
+    public MailSenderMetricsPostProcessor(@Nonnull ObjectProvider<MeterRegistry> meterRegistry, @Nonnull ObjectProvider<ObservationRegistry> observationRegistry, @Nonnull MultipleMailProperties.Metrics properties) {
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+        this.properties = properties;
+    }
+
+    @Override
+    public void setBeanFactory(@Nonnull BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(@Nonnull Object bean, @Nonnull String beanName) throws BeansException {
+        if (!(bean instanceof JavaMailSenderImpl sender) || !beanName.endsWith(MailSenderUtils.MAIL_SENDER_SUFFIX) || !MailSenderUtils.isStarterMailSender(beanFactory, beanName, sender)) {
+            return bean;
+        }
+        MeterRegistry registry = meterRegistry.getIfUnique();
+        if (registry == null) {
+            return bean;
+        }
+        MailSenderMetrics metrics = new MailSenderMetrics(beanName, registry, observationRegistry.getIfUnique(), properties);
+        if (sender instanceof ReloadableMailSender reloadable) {
+            reloadable.setMetrics(metrics);
+            return reloadable;
+        }
+        DecoratedMailSender result = (sender instanceof DecoratedMailSender decorated) ? decorated : new DecoratedMailSender(sender);
+        result.setMetrics(metrics);
+        return result;
+    }
+}
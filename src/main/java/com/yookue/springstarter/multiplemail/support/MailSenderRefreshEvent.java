@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.Serial;
+import java.util.Collection;
+import java.util.Collections;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.springframework.context.ApplicationEvent;
+
+
+/**
+ * Event that asks to reload the configurations of mail senders from the environment
+ * <p>
+ * Publish this event after changing the environment, the senders with changed properties are rebuilt in the background.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailSenderReloader
+ */
+@SuppressWarnings("unused")
+public class MailSenderRefreshEvent extends ApplicationEvent {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Collection<String> senderNames;
+
+    /**
+     * Constructs an event that reloads all the senders
+     *
+     * @param source the object that publishes the event
+     */
+    public MailSenderRefreshEvent(@Nonnull Object source) {
+        this(source, null);
+    }
+
+    /**
+     * Constructs an event that reloads the given senders
+     *
+     * @param source the object that publishes the event
+     * @param senderNames the bean names of the senders to reload, null or empty means all the senders
+     */
+    public MailSenderRefreshEvent(@Nonnull Object source, @Nullable Collection<String> senderNames) {
+        super(source);
+        this.senderNames = (senderNames == null) ? Collections.emptySet() : senderNames;
+    }
+
+    @Nonnull
+    public Collection<String> getSenderNames() {
+        return senderNames;
+    }
+}
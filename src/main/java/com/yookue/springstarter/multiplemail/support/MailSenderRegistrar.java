@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.Session;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.autoconfigure.mail.MailConfigurationUtils;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.autoconfigure.mail.MailSenderValidatorAutoConfiguration;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.ImportBeanDefinitionRegistrar;
+import org.springframework.core.env.Environment;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.util.ClassUtils;
+import com.yookue.springstarter.multiplemail.enumeration.MailValidationMode;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Registrar that registers the beans of each sender under {@code spring.multiple-mail.senders.<name>}
+ * <p>
+ * The properties are bound once for all the senders, and the bean definitions are registered programmatically with instance suppliers,
+ * without evaluating any condition. The bean names are prefixed with the camel case of {@code <name>}, such as {@code relayMailSender}.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.config.MailSenderRegistryConfiguration
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailSenderRegistrar implements ImportBeanDefinitionRegistrar, EnvironmentAware, BeanFactoryAware {
+    public static final String PROPERTIES_PREFIX = "spring.multiple-mail.senders";    // $NON-NLS-1$
+    private static final String VALIDATION_MODE = "spring.multiple-mail.validation.mode";    // $NON-NLS-1$
+    private static final String REACTOR_CLASS = "reactor.core.publisher.Flux";    // $NON-NLS-1$
+
+    private Environment environment;
+    private BeanFactory beanFactory;
+
+    @Override
+    public void setEnvironment(@Nonnull Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void setBeanFactory(@Nonnull BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void registerBeanDefinitions(@Nonnull AnnotationMetadata metadata, @Nonnull BeanDefinitionRegistry registry) {
+        Binder binder = Binder.get(environment);
+        Map<String, MailProperties> mailProperties = binder.bind(PROPERTIES_PREFIX, Bindable.mapOf(String.class, MailProperties.class)).orElse(Collections.emptyMap());
+        if (mailProperties.isEmpty()) {
+            return;
+        }
+        Map<String, MailSenderProperties> senderProperties = binder.bind(PROPERTIES_PREFIX, Bindable.mapOf(String.class, MailSenderProperties.class)).orElse(Collections.emptyMap());
+        MailValidationMode validationMode = environment.getProperty(VALIDATION_MODE, MailValidationMode.class, MailValidationMode.SEQUENTIAL);
+        for (Map.Entry<String, MailProperties> entry : mailProperties.entrySet()) {
+            String slot = MailSenderUtils.toBeanNamePrefix(entry.getKey());
+            if (registry.containsBeanDefinition(slot + MailSenderUtils.MAIL_SENDER_SUFFIX)) {
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Mail sender '%s' has been registered, skipping '%s.%s'", slot + MailSenderUtils.MAIL_SENDER_SUFFIX, PROPERTIES_PREFIX, entry.getKey()));
+                }
+                continue;
+            }
+            MailProperties properties = entry.getValue();
+            if (properties.getHost() == null && properties.getJndiName() == null) {
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Neither host nor jndi-name is present, skipping '%s.%s'", PROPERTIES_PREFIX, entry.getKey()));
+                }
+                continue;
+            }
+            MailSenderProperties extraProperties = senderProperties.getOrDefault(entry.getKey(), new MailSenderProperties());
+            registerSlot(registry, slot, properties, extraProperties, validationMode);
+        }
+    }
+
+    private void registerSlot(@Nonnull BeanDefinitionRegistry registry, @Nonnull String slot, @Nonnull MailProperties properties, @Nonnull MailSenderProperties senderProperties, @Nonnull MailValidationMode validationMode) {
+        String senderName = slot + MailSenderUtils.MAIL_SENDER_SUFFIX;
+        registerBean(registry, slot + MailSenderUtils.MAIL_PROPERTIES_SUFFIX, MailProperties.class, () -> properties, null);
+        registerBean(registry, slot + MailSenderUtils.SENDER_PROPERTIES_SUFFIX, MailSenderProperties.class, () -> senderProperties, null);
+        if (Boolean.TRUE.equals(senderProperties.getLazy())) {
+            registerBean(registry, senderName, JavaMailSenderImpl.class, () -> {
+                LazyMailSender sender = new LazyMailSender(senderName, () -> MailSenderUtils.buildMailSender(senderName, properties, senderProperties, resolveSslBundles(slot)));
+                return validateSender(sender, senderProperties, validationMode);
+            }, null);
+        } else if (properties.getJndiName() != null) {
+            String sessionName = slot + MailSenderUtils.MAIL_SESSION_SUFFIX;
+            registerBean(registry, sessionName, Session.class, () -> MailConfigurationUtils.jndiMailSession(properties), null);
+            registerBean(registry, senderName, JavaMailSenderImpl.class, () -> {
+                Session session = beanFactory.getBean(sessionName, Session.class);
+                return validateSender(MailSenderUtils.decorateMailSender(senderName, MailConfigurationUtils.jndiMailSender(properties, session), senderProperties), senderProperties, validationMode);
+            }, sessionName);
+        } else {
+            registerBean(registry, senderName, JavaMailSenderImpl.class, () -> {
+                JavaMailSenderImpl sender = MailConfigurationUtils.classicMailSender(properties, resolveSslBundles(slot));
+                return validateSender(MailSenderUtils.decorateMailSender(senderName, sender, senderProperties), senderProperties, validationMode);
+            }, null);
+        }
+        if (!Boolean.FALSE.equals(senderProperties.getAsync().getEnabled())) {
+            String asyncName = slot + MailSenderUtils.ASYNC_SENDER_SUFFIX;
+            registerBean(registry, asyncName, AsyncMailSender.class, () -> new AsyncMailSender(asyncName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getAsync()), senderName);
+        }
+        if (Boolean.TRUE.equals(senderProperties.getBatch().getEnabled())) {
+            String batchName = slot + MailSenderUtils.BATCH_SENDER_SUFFIX;
+            registerBean(registry, batchName, BatchMailSender.class, () -> new BatchMailSender(batchName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getBatch()), senderName);
+        }
+        if (Boolean.TRUE.equals(senderProperties.getOutbox().getEnabled())) {
+            String outboxName = slot + MailSenderUtils.MAIL_OUTBOX_SUFFIX;
+            registerBean(registry, outboxName, MailOutbox.class, () -> new MailOutbox(outboxName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getOutbox()), senderName);
+        }
+        if (!Boolean.FALSE.equals(senderProperties.getReactive().getEnabled()) && ClassUtils.isPresent(REACTOR_CLASS, getClass().getClassLoader())) {
+            String reactiveName = slot + MailSenderUtils.REACTIVE_SENDER_SUFFIX;
+            registerBean(registry, reactiveName, ReactiveMailSender.class, () -> new ReactiveMailSender(reactiveName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getReactive()), senderName);
+        }
+        if (Boolean.TRUE.equals(senderProperties.getPriority().getEnabled())) {
+            String priorityName = slot + MailSenderUtils.PRIORITY_SENDER_SUFFIX;
+            registerBean(registry, priorityName, PriorityMailSender.class, () -> new PriorityMailSender(priorityName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getPriority()), senderName);
+        }
+        if (Boolean.TRUE.equals(senderProperties.getRetry().getEnabled())) {
+            String retryingName = slot + MailSenderUtils.RETRYING_SENDER_SUFFIX;
+            registerBean(registry, retryingName, RetryingMailSender.class, () -> new RetryingMailSender(retryingName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getRetry()), senderName);
+        }
+        if (Boolean.TRUE.equals(senderProperties.getFanOut().getEnabled())) {
+            String fanOutName = slot + MailSenderUtils.FAN_OUT_SENDER_SUFFIX;
+            registerBean(registry, fanOutName, FanOutMailSender.class, () -> new FanOutMailSender(fanOutName, beanFactory.getBean(senderName, JavaMailSenderImpl.class), senderProperties.getFanOut()), senderName);
+        }
+    }
+
+    private <T> void registerBean(@Nonnull BeanDefinitionRegistry registry, @Nonnull String beanName, @Nonnull Class<T> beanType, @Nonnull Supplier<T> supplier, String dependsOn) {
+        if (registry.containsBeanDefinition(beanName)) {
+            return;
+        }
+        RootBeanDefinition definition = new RootBeanDefinition(beanType, supplier);
+        definition.setAttribute(MailSenderUtils.STARTER_SENDER_ATTRIBUTE, Boolean.TRUE);
+        if (dependsOn != null) {
+            definition.setDependsOn(dependsOn);
+        }
+        registry.registerBeanDefinition(beanName, definition);
+    }
+
+    @Nullable
+    private SslBundles resolveSslBundles(@Nonnull String slot) {
+        String bundlesName = slot + MailSenderUtils.SSL_BUNDLES_SUFFIX;
+        return beanFactory.containsBean(bundlesName) ? beanFactory.getBean(bundlesName, SslBundles.class) : beanFactory.getBeanProvider(SslBundles.class).getIfUnique();
+    }
+
+    @Nonnull
+    private JavaMailSenderImpl validateSender(@Nonnull JavaMailSenderImpl sender, @Nonnull MailSenderProperties properties, @Nonnull MailValidationMode mode) {
+        // Parallel and deferred modes are handled by MailSenderValidationConfiguration
+        if (Boolean.TRUE.equals(properties.getTestConnection()) && mode == MailValidationMode.SEQUENTIAL) {
+            new MailSenderValidatorAutoConfiguration(sender);
+        }
+        return sender;
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.CompositePropertySource;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.property.MultipleMailProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Reloader that rebuilds the mail senders when their properties changed, without restarting the context
+ * <p>
+ * The {@code *MailSender} beans created by this starter are wrapped into {@link com.yookue.springstarter.multiplemail.support.ReloadableMailSender}s,
+ * while the beans declared by the application are left as they are.
+ * On {@link com.yookue.springstarter.multiplemail.support.MailSenderRefreshEvent} or changes of the watched files,
+ * the properties of each sender are bound again, and the senders with changed properties are rebuilt on a background thread, then swapped atomically.
+ * A sender that fails to rebuild, or fails to test its connection when {@code test-connection} is {@code true}, keeps the previous delegate.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.ReloadableMailSender
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailSenderReloader implements BeanPostProcessor, Ordered, EnvironmentAware, BeanFactoryAware, ApplicationListener<ApplicationEvent>, SmartLifecycle, DisposableBean {
+    private static final String CLOUD_CHANGE_EVENT = "org.springframework.cloud.context.environment.EnvironmentChangeEvent";    // $NON-NLS-1$
+    private static final String PROPERTY_SOURCE_PREFIX = "multipleMailReload:";    // $NON-NLS-1$
+    private static final Set<String> FIXED_SLOTS = Set.of("primary", "secondary", "tertiary", "quaternary", "quinary", "senary");    // $NON-NLS-1$
+    private static final List<PropertySourceLoader> SOURCE_LOADERS = List.of(new PropertiesPropertySourceLoader(), new YamlPropertySourceLoader());
+
+    private final MultipleMailProperties.Reload properties;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private Environment environment;
+    private BeanFactory beanFactory;
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledFuture<?> pendingReload;
+    private volatile boolean running;
+
+    public MailSenderReloader(@Nonnull MultipleMailProperties.Reload properties) {
+        this.properties = properties;
+        CustomizableThreadFactory factory = new CustomizableThreadFactory("mail-reloader-");
+        factory.setDaemon(true);
+        this.executor = Executors.newSingleThreadScheduledExecutor(factory);
+    }
+
+    @Override
+    public void setEnvironment(@Nonnull Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void setBeanFactory(@Nonnull BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public int getOrder() {
+        // Wraps the senders before the other post processors, such as metrics
+        return Ordered.HIGHEST_PRECEDENCE + 100;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(@Nonnull Object bean, @Nonnull String beanName) throws BeansException {
+        if (!(bean instanceof JavaMailSenderImpl sender) || !beanName.endsWith(MailSenderUtils.MAIL_SENDER_SUFFIX) || !MailSenderUtils.isStarterMailSender(beanFactory, beanName, sender)) {
+            return bean;
+        }
+        Binder binder = Binder.get(environment);
+        String prefix = resolvePrefix(beanName, binder);
+        if (prefix == null) {
+            return bean;
+        }
+        ReloadableMailSender result;
+        if (sender instanceof ReloadableMailSender reloadable) {
+            // Such as lazy senders, keep them not initialized
+            result = reloadable;
+        } else {
+            result = new ReloadableMailSender(beanName, (sender instanceof DecoratedMailSender decorated) ? decorated : new DecoratedMailSender(sender));
+        }
+        slots.put(beanName, new Slot(result, fingerprint(binder, prefix)));
+        return result;
+    }
+
+    @Override
+    public void onApplicationEvent(@Nonnull ApplicationEvent event) {
+        if (event instanceof MailSenderRefreshEvent refreshEvent) {
+            reload(refreshEvent.getSenderNames());
+        } else if (event.getClass().getName().equals(CLOUD_CHANGE_EVENT)) {
+            reload(null);
+        }
+    }
+
+    /**
+     * Reloads the senders in the background, without waiting for the completion
+     *
+     * @param senderNames the bean names of the senders to reload, null or empty means all the senders
+     *
+     * @return a future that completes when the senders have been reloaded, never completes exceptionally
+     */
+    @Nonnull
+    public CompletableFuture<Void> reload(@Nullable Iterable<String> senderNames) {
+        Set<String> names = new LinkedHashSet<>();
+        if (senderNames != null) {
+            senderNames.forEach(names::add);
+        }
+        return CompletableFuture.runAsync(() -> doReload(names.isEmpty() ? slots.keySet() : names), executor);
+    }
+
+    private void doReload(@Nonnull Set<String> senderNames) {
+        Binder binder = Binder.get(environment);
+        for (String senderName : senderNames) {
+            Slot slot = slots.get(senderName);
+            String prefix = (slot == null) ? null : resolvePrefix(senderName, binder);
+            if (prefix == null) {
+                continue;
+            }
+            String fingerprint = fingerprint(binder, prefix);
+            if (fingerprint.equals(slot.fingerprint)) {
+                continue;
+            }
+            MailProperties mailProperties = binder.bindOrCreate(prefix, MailProperties.class);
+            MailSenderProperties senderProperties = binder.bindOrCreate(prefix, MailSenderProperties.class);
+            DecoratedMailSender delegate = null;
+            try {
+                delegate = MailSenderUtils.buildMailSender(senderName, mailProperties, senderProperties, resolveSslBundles(senderName));
+                if (Boolean.TRUE.equals(senderProperties.getTestConnection())) {
+                    delegate.testConnection();
+                }
+            } catch (Exception ex) {
+                if (delegate != null) {
+                    delegate.destroy();
+                }
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Failed to reload mail sender '%s', keeping the previous configuration", senderName), ex);
+                }
+                continue;
+            }
+            slot.sender.swapDelegate(delegate);
+            slot.fingerprint = fingerprint;
+            if (log.isInfoEnabled()) {
+                log.info(String.format("Mail sender '%s' has been reloaded", senderName));
+            }
+        }
+    }
+
+    @Nullable
+    private String resolvePrefix(@Nonnull String beanName, @Nonnull Binder binder) {
+        String slotName = beanName.substring(0, beanName.length() - MailSenderUtils.MAIL_SENDER_SUFFIX.length());
+        if (FIXED_SLOTS.contains(slotName)) {
+            return MultipleMailProperties.PROPERTIES_PREFIX + "." + slotName;
+        }
+        Map<String, Object> senders = binder.bind(MailSenderRegistrar.PROPERTIES_PREFIX, Bindable.mapOf(String.class, Object.class)).orElse(Collections.emptyMap());
+        for (String key : senders.keySet()) {
+            if (MailSenderUtils.toBeanNamePrefix(key).equals(slotName)) {
+                return MailSenderRegistrar.PROPERTIES_PREFIX + "." + key;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private SslBundles resolveSslBundles(@Nonnull String senderName) {
+        String bundlesName = senderName.substring(0, senderName.length() - MailSenderUtils.MAIL_SENDER_SUFFIX.length()) + MailSenderUtils.SSL_BUNDLES_SUFFIX;
+        if (beanFactory.containsBean(bundlesName)) {
+            return beanFactory.getBean(bundlesName, SslBundles.class);
+        }
+        return beanFactory.getBeanProvider(SslBundles.class).getIfUnique();
+    }
+
+    /**
+     * Returns the fingerprint of the properties, for detecting changes only, never logged
+     */
+    @Nonnull
+    private static String fingerprint(@Nonnull Binder binder, @Nonnull String prefix) {
+        MailProperties mail = binder.bindOrCreate(prefix, MailProperties.class);
+        MailSenderProperties sender = binder.bindOrCreate(prefix, MailSenderProperties.class);
+        return String.join("\n", mail.getHost(), String.valueOf(mail.getPort()), mail.getUsername(), mail.getPassword(), mail.getProtocol(),
+            String.valueOf(mail.getDefaultEncoding()), String.valueOf(mail.getProperties()), mail.getJndiName(),
+            String.valueOf(mail.getSsl().isEnabled()), mail.getSsl().getBundle(), sender.toString());
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        List<Path> files = properties.getWatchFiles().stream().map(file -> Path.of(file).toAbsolutePath().normalize()).toList();
+        if (files.isEmpty() || !(environment instanceof ConfigurableEnvironment)) {
+            return;
+        }
+        files.forEach(this::loadWatchedFile);
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new LinkedHashSet<>();
+            files.forEach(file -> directories.add(file.getParent()));
+            for (Path directory : directories) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        } catch (IOException ex) {
+            if (log.isWarnEnabled()) {
+                log.warn("Failed to watch the files of mail senders", ex);
+            }
+            return;
+        }
+        watchThread = new Thread(() -> watchFiles(files), "mail-reloader-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        reload(null);
+    }
+
+    private void watchFiles(@Nonnull List<Path> files) {
+        Map<Path, Boolean> changedFiles = new ConcurrentHashMap<>();
+        long delayMillis = (properties.getWatchDelay() == null) ? 0L : Math.max(properties.getWatchDelay().toMillis(), 0L);
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.context() instanceof Path name) {
+                    Path file = ((Path) key.watchable()).resolve(name).toAbsolutePath().normalize();
+                    if (files.contains(file)) {
+                        changedFiles.put(file, Boolean.TRUE);
+                    }
+                }
+            }
+            key.reset();
+            if (!changedFiles.isEmpty()) {
+                synchronized (this) {
+                    // Debounces the bursts of events, such as truncating and writing
+                    if (pendingReload != null) {
+                        pendingReload.cancel(false);
+                    }
+                    pendingReload = executor.schedule(() -> {
+                        for (Path file : changedFiles.keySet()) {
+                            changedFiles.remove(file);
+                            loadWatchedFile(file);
+                        }
+                        doReload(slots.keySet());
+                    }, delayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private void loadWatchedFile(@Nonnull Path file) {
+        if (!(environment instanceof ConfigurableEnvironment configurable)) {
+            return;
+        }
+        String sourceName = PROPERTY_SOURCE_PREFIX + file;
+        FileSystemResource resource = new FileSystemResource(file);
+        if (!resource.isReadable()) {
+            return;
+        }
+        try {
+            CompositePropertySource composite = new CompositePropertySource(sourceName);
+            for (PropertySourceLoader loader : SOURCE_LOADERS) {
+                for (String extension : loader.getFileExtensions()) {
+                    if (file.getFileName().toString().endsWith("." + extension)) {
+                        for (PropertySource<?> source : loader.load(sourceName, resource)) {
+                            composite.addPropertySource(source);
+                        }
+                    }
+                }
+            }
+            if (configurable.getPropertySources().contains(sourceName)) {
+                configurable.getPropertySources().replace(sourceName, composite);
+            } else {
+                configurable.getPropertySources().addFirst(composite);
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Failed to load file '%s' of mail senders", file), ex);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+        executor.shutdownNow();
+    }
+
+    @Nonnull
+    public Map<String, ReloadableMailSender> getMailSenders() {
+        Map<String, ReloadableMailSender> result = new LinkedHashMap<>();
+        slots.forEach((name, slot) -> result.put(name, slot.sender));
+        return result;
+    }
+
+
+    /**
+     * Reloadable sender and the fingerprint of its properties
+     *
+     * @author David Hsing
+     */
+    private static class Slot {
+        private final ReloadableMailSender sender;
+        private volatile String fingerprint;
+
+        private Slot(@Nonnull ReloadableMailSender sender, @Nonnull String fingerprint) {
+            this.sender = sender;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
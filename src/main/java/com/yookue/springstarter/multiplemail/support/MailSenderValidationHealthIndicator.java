@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Map;
+import jakarta.annotation.Nonnull;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+
+/**
+ * Health indicator that reports the results of {@link com.yookue.springstarter.multiplemail.support.MailSenderValidator}
+ * <p>
+ * Unlike {@link org.springframework.boot.actuate.mail.MailHealthIndicator}, this indicator never connects to the mail servers by itself.
+ *
+ * @author David Hsing
+ */
+@SuppressWarnings("unused")
+public class MailSenderValidationHealthIndicator extends AbstractHealthIndicator {
+    private final MailSenderValidator validator;
+
+    public MailSenderValidationHealthIndicator(@Nonnull MailSenderValidator validator) {
+        super("Mail sender validation failed");
+        this.validator = validator;
+    }
+
+    @Override
+    protected void doHealthCheck(@Nonnull Health.Builder builder) {
+        boolean down = false, pending = false;
+        for (Map.Entry<String, MailSenderValidator.Result> entry : validator.getResults().entrySet()) {
+            MailSenderValidator.Result result = entry.getValue();
+            switch (result.getStatus()) {
+                case DOWN -> {
+                    down = true;
+                    builder.withDetail(entry.getKey(), String.valueOf(result.getError()));
+                }
+                case PENDING -> {
+                    pending = true;
+                    builder.withDetail(entry.getKey(), result.getStatus().name());
+                }
+                default -> builder.withDetail(entry.getKey(), result.getStatus().name());
+            }
+        }
+        if (down) {
+            builder.down();
+        } else if (pending) {
+            builder.unknown();
+        } else {
+            builder.up();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.Authenticator;
+import jakarta.mail.MessagingException;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Validator that tests the connections of mail senders at the same time
+ *
+ * @author David Hsing
+ * @see org.springframework.boot.autoconfigure.mail.MailSenderValidatorAutoConfiguration
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class MailSenderValidator {
+    private final Map<String, JavaMailSenderImpl> mailSenders;
+    private final Duration timeout;
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private final SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("mail-validator-");
+
+    /**
+     * Constructs a validator
+     *
+     * @param mailSenders the senders to test, keyed by names
+     * @param timeout the maximum duration of testing each sender
+     */
+    public MailSenderValidator(@Nonnull Map<String, JavaMailSenderImpl> mailSenders, @Nullable Duration timeout) {
+        this.mailSenders = mailSenders;
+        this.timeout = timeout;
+        this.executor.setDaemon(true);
+        mailSenders.keySet().forEach(name -> results.put(name, Result.PENDING));
+    }
+
+    /**
+     * Tests all the senders at the same time, and waits for the completion
+     *
+     * @throws IllegalStateException if any sender is not available
+     */
+    public void validate() throws IllegalStateException {
+        validateAsync().join();
+        IllegalStateException failure = null;
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            if (entry.getValue().getStatus() == Status.DOWN) {
+                if (failure == null) {
+                    failure = new IllegalStateException("Mail server is not available");
+                }
+                failure.addSuppressed(new IllegalStateException(String.format("Mail sender '%s' is not available", entry.getKey()), entry.getValue().getError()));
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Tests all the senders at the same time, without waiting for the completion
+     *
+     * @return a future that completes when all the senders have been tested, never completes exceptionally
+     */
+    @Nonnull
+    public CompletableFuture<Void> validateAsync() {
+        CompletableFuture<?>[] futures = mailSenders.entrySet().stream().map(entry -> validateSender(entry.getKey(), entry.getValue())).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> validateSender(@Nonnull String name, @Nonnull JavaMailSenderImpl sender) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            try {
+                testConnection(sender);
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+        if (timeout != null && !timeout.isNegative() && !timeout.isZero()) {
+            future = future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return future.handle((ignored, ex) -> {
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+            if (ex == null) {
+                results.put(name, new Result(Status.UP, null, elapsed));
+            } else {
+                Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                if (cause instanceof TimeoutException) {
+                    cause = new TimeoutException(String.format("Timeout testing connection of mail sender '%s' after %s", name, timeout));
+                }
+                results.put(name, new Result(Status.DOWN, cause, elapsed));
+                if (log.isWarnEnabled()) {
+                    log.warn(String.format("Mail sender '%s' is not available", name), cause);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Tests the connection of the sender, with the socket timeouts no longer than the timeout of validation
+     * <p>
+     * The test connects by a session derived from the session of the sender, so that a blocked test ends with its socket, rather than leaking the thread after the future timed out.
+     * The derived session asks the session of the sender for password authentication, so that the authenticator of a session looked up by JNDI is still used.
+     */
+    private void testConnection(@Nonnull JavaMailSenderImpl sender) throws MessagingException {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            sender.testConnection();
+            return;
+        }
+        Session session = sender.getSession();
+        String protocol = sender.getProtocol();
+        if (protocol == null) {
+            protocol = session.getProperty("mail.transport.protocol");
+        }
+        if (protocol == null) {
+            protocol = JavaMailSenderImpl.DEFAULT_PROTOCOL;
+        }
+        Properties properties = new Properties();
+        properties.putAll(session.getProperties());
+        for (String key : new String[] {"mail." + protocol + ".connectiontimeout", "mail." + protocol + ".timeout"}) {
+            long millis = parseMillis(properties.getProperty(key));
+            if (millis <= 0L || millis > timeout.toMillis()) {
+                properties.setProperty(key, String.valueOf(timeout.toMillis()));
+            }
+        }
+        Session testSession = Session.getInstance(properties, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return session.requestPasswordAuthentication(getRequestingSite(), getRequestingPort(), getRequestingProtocol(), getRequestingPrompt(), getDefaultUserName());
+            }
+        });
+        String username = sender.getUsername();
+        String password = sender.getPassword();
+        if ("".equals(username)) {
+            username = null;
+            if ("".equals(password)) {
+                password = null;
+            }
+        }
+        try (Transport transport = testSession.getTransport(protocol)) {
+            transport.connect(sender.getHost(), sender.getPort(), username, password);
+        }
+    }
+
+    private static long parseMillis(@Nullable String value) {
+        if (value == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ignored) {
+            return 0L;
+        }
+    }
+
+    @Nonnull
+    public Map<String, Result> getResults() {
+        return Collections.unmodifiableMap(results);
+    }
+
+
+    /**
+     * Enumerations of validation status
+     *
+     * @author David Hsing
+     */
+    public enum Status {
+        PENDING, UP, DOWN
+    }
+
+
+    /**
+     * Validation result of a sender
+     *
+     * @author David Hsing
+     */
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @Getter
+    @ToString
+    public static class Result {
+        private static final Result PENDING = new Result(Status.PENDING, null, null);
+
+        private final Status status;
+        private final Throwable error;
+        private final Duration elapsed;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+
+/**
+ * Precompiled template of mail bodies, with mustache-like placeholders
+ * <p>
+ * Placeholder {@code {{name}}} is replaced with the html escaped value, {@code {{{name}}}} is replaced with the raw value, a missing value is replaced with empty.
+ * The source is parsed once on compiling, rendering just appends the segments.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailComposer
+ */
+@SuppressWarnings("unused")
+public class MailTemplate {
+    private final String[] literals;
+    private final String[] names;
+    private final boolean[] escapes;
+    private final int estimatedLength;
+
+    private MailTemplate(@Nonnull List<String> literals, @Nonnull List<String> names, @Nonnull List<Boolean> escapes, int sourceLength) {
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.escapes = new boolean[escapes.size()];
+        for (int i = 0; i < this.escapes.length; i++) {
+            this.escapes[i] = escapes.get(i);
+        }
+        this.estimatedLength = sourceLength + (sourceLength >> 2);
+    }
+
+    /**
+     * Returns a template that compiled from the source
+     *
+     * @param source the source of the template
+     *
+     * @return a template that compiled from the source
+     */
+    @Nonnull
+    public static MailTemplate compile(@Nonnull String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Boolean> escapes = new ArrayList<>();
+        int position = 0, literalStart = 0;
+        while (true) {
+            int open = source.indexOf("{{", position);
+            if (open < 0) {
+                break;
+            }
+            boolean raw = source.startsWith("{{{", open);
+            String closeTag = raw ? "}}}" : "}}";
+            int nameStart = open + (raw ? 3 : 2);
+            int close = source.indexOf(closeTag, nameStart);
+            if (close < 0) {
+                break;
+            }
+            String name = source.substring(nameStart, close).trim();
+            if (name.isEmpty()) {
+                position = close + closeTag.length();
+                continue;
+            }
+            literals.add(source.substring(literalStart, open));
+            names.add(name);
+            escapes.add(!raw);
+            position = literalStart = close + closeTag.length();
+        }
+        literals.add(source.substring(literalStart));
+        return new MailTemplate(literals, names, escapes, source.length());
+    }
+
+    /**
+     * Returns the rendered content with the model
+     *
+     * @param model the values of the placeholders
+     *
+     * @return the rendered content with the model
+     */
+    @Nonnull
+    public String render(@Nullable Map<String, ?> model) {
+        StringBuilder builder = new StringBuilder(estimatedLength);
+        for (int i = 0; i < names.length; i++) {
+            builder.append(literals[i]);
+            Object value = (model == null) ? null : model.get(names[i]);
+            if (value != null) {
+                if (escapes[i]) {
+                    appendEscaped(builder, value.toString());
+                } else {
+                    builder.append(value);
+                }
+            }
+        }
+        return builder.append(literals[names.length]).toString();
+    }
+
+    @Nonnull
+    public List<String> getPlaceholderNames() {
+        return List.of(names);
+    }
+
+    private static void appendEscaped(@Nonnull StringBuilder builder, @Nonnull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '<' -> builder.append("&lt;");
+                case '>' -> builder.append("&gt;");
+                case '&' -> builder.append("&amp;");
+                case '"' -> builder.append("&quot;");
+                case '\'' -> builder.append("&#39;");
+                default -> builder.append(ch);
+            }
+        }
+    }
+}
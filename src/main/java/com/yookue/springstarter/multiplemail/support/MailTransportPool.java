@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import lombok.Getter;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Bounded pool of connected {@link jakarta.mail.Transport}s
+ * <p>
+ * Idle transports are kept in LIFO order, so that the most recently used (and most likely alive) one is borrowed first,
+ * while the least recently used one is evicted first.
+ *
+ * @author David Hsing
+ */
+@CommonsLog
+@SuppressWarnings({"unused", "BooleanMethodIsAlwaysInverted"})
+public class MailTransportPool implements AutoCloseable {
+    private final String name;
+    private final TransportConnector connector;
+    private final MailSenderProperties.Pool properties;
+    private final Semaphore permits;
+    private final Deque<PooledTransport> idleTransports = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    public MailTransportPool(@Nonnull String name, @Nonnull TransportConnector connector, @Nonnull MailSenderProperties.Pool properties) {
+        Assert.isTrue(properties.getMaxSize() != null && properties.getMaxSize() > 0, "Pool max size must be positive");
+        this.name = name;
+        this.connector = connector;
+        this.properties = properties;
+        this.permits = new Semaphore(properties.getMaxSize(), true);
+        this.evictor = createEvictor();
+    }
+
+    /**
+     * Returns an idle transport, or connects a new one if there is no idle transport
+     *
+     * @return an idle transport, or a new one if there is no idle transport
+     *
+     * @throws MessagingException if the pool is exhausted or the connect attempt failed
+     */
+    @Nonnull
+    public PooledTransport borrowTransport() throws MessagingException {
+        if (closed) {
+            throw new MessagingException(String.format("Transport pool '%s' has been closed", name));
+        }
+        try {
+            long timeout = (properties.getMaxWait() == null) ? 0L : Math.max(properties.getMaxWait().toMillis(), 0L);
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException(String.format("Timeout waiting for idle transport of pool '%s'", name));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(String.format("Interrupted waiting for idle transport of pool '%s'", name), ex);
+        }
+        try {
+            PooledTransport pooled;
+            while ((pooled = idleTransports.pollFirst()) != null) {
+                if (isIdleExpired(pooled, System.nanoTime()) || (Boolean.TRUE.equals(properties.getValidateOnBorrow()) && !pooled.getTransport().isConnected())) {
+                    // SMTPTransport.isConnected() issues a NOOP command to check the connection
+                    closeQuietly(pooled);
+                    continue;
+                }
+                return pooled;
+            }
+            return new PooledTransport(connector.connect());
+        } catch (MessagingException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gives back a borrowed transport to the pool
+     *
+     * @param pooled the transport that borrowed from this pool
+     * @param reusable whether the transport could be used by other borrowers or not
+     */
+    public void returnTransport(@Nullable PooledTransport pooled, boolean reusable) {
+        if (pooled == null) {
+            return;
+        }
+        try {
+            int maxMessages = (properties.getMaxMessages() == null) ? 0 : properties.getMaxMessages();
+            if (!closed && reusable && (maxMessages <= 0 || pooled.getMessageCount() < maxMessages)) {
+                pooled.lastReturnedNanos = System.nanoTime();
+                idleTransports.offerFirst(pooled);
+                if (closed && idleTransports.remove(pooled)) {
+                    closeQuietly(pooled);
+                }
+            } else {
+                closeQuietly(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes the idle transports that exceeded the idle timeout
+     */
+    public void evictIdleTransports() {
+        long now = System.nanoTime();
+        int size = idleTransports.size();
+        for (int i = 0; i < size; i++) {
+            PooledTransport pooled = idleTransports.pollLast();
+            if (pooled == null) {
+                return;
+            }
+            if (!isIdleExpired(pooled, now)) {
+                idleTransports.offerLast(pooled);
+                return;
+            }
+            closeQuietly(pooled);
+        }
+    }
+
+    public int getIdleCount() {
+        return idleTransports.size();
+    }
+
+    public int getActiveCount() {
+        return properties.getMaxSize() - permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        PooledTransport pooled;
+        while ((pooled = idleTransports.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+
+    private boolean isIdleExpired(@Nonnull PooledTransport pooled, long now) {
+        Duration idleTimeout = properties.getIdleTimeout();
+        return idleTimeout != null && !idleTimeout.isNegative() && !idleTimeout.isZero() && now - pooled.lastReturnedNanos > idleTimeout.toNanos();
+    }
+
+    @Nullable
+    private ScheduledExecutorService createEvictor() {
+        Duration interval = properties.getEvictionInterval();
+        if (interval == null || interval.isNegative() || interval.isZero()) {
+            return null;
+        }
+        CustomizableThreadFactory factory = new CustomizableThreadFactory(name + "-evictor-");
+        factory.setDaemon(true);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(factory);
+        executor.scheduleWithFixedDelay(this::evictIdleTransports, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    private void closeQuietly(@Nonnull PooledTransport pooled) {
+        try {
+            pooled.getTransport().close();
+        } catch (Exception ex) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Failed to close transport of pool '%s'", name), ex);
+            }
+        }
+    }
+
+
+    /**
+     * Functional interface for connecting a new transport
+     *
+     * @author David Hsing
+     */
+    @FunctionalInterface
+    public interface TransportConnector {
+        Transport connect() throws MessagingException;
+    }
+
+
+    /**
+     * Transport holder that borrowed from the pool
+     *
+     * @author David Hsing
+     */
+    @Getter
+    public static class PooledTransport {
+        private final Transport transport;
+        private int messageCount;
+        private volatile long lastReturnedNanos = System.nanoTime();
+
+        private PooledTransport(@Nonnull Transport transport) {
+            this.transport = transport;
+        }
+
+        public void increaseMessageCount() {
+            messageCount++;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * {@link org.eclipse.angus.mail.smtp.SMTPTransport} that records the duration of connect, auth and data phases separately
+ * <p>
+ * The auth phase starts with the first {@code AUTH} command, everything before it (greeting, {@code EHLO} and {@code STARTTLS}) belongs to the connect phase.
+ * The size of a message is the number of bytes written in the data phase.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailSenderMetrics
+ */
+@SuppressWarnings("unused")
+public class MeteredSmtpTransport extends PipeliningSmtpTransport {
+    private final MailSenderMetrics metrics;
+    private long authStartNanos;
+    private long dataBytes;
+
+    /**
+     * Constructs a transport
+     *
+     * @param session the session of the transport
+     * @param urlName the url name of the transport
+     * @param protocol the protocol of the transport, {@code smtp} or {@code smtps}
+     * @param metrics the meters of the sender
+     */
+    public MeteredSmtpTransport(@Nonnull Session session, @Nonnull URLName urlName, @Nonnull String protocol, @Nonnull MailSenderMetrics metrics) {
+        this(session, urlName, protocol, false, metrics);
+    }
+
+    /**
+     * Constructs a transport
+     *
+     * @param session the session of the transport
+     * @param urlName the url name of the transport
+     * @param protocol the protocol of the transport, {@code smtp} or {@code smtps}
+     * @param pipelining whether to pipeline the envelope commands or not
+     * @param metrics the meters of the sender
+     */
+    public MeteredSmtpTransport(@Nonnull Session session, @Nonnull URLName urlName, @Nonnull String protocol, boolean pipelining, @Nonnull MailSenderMetrics metrics) {
+        super(session, urlName, protocol, pipelining);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected synchronized boolean protocolConnect(String host, int port, String user, String password) throws MessagingException {
+        long startNanos = System.nanoTime();
+        authStartNanos = 0L;
+        try {
+            boolean result = super.protocolConnect(host, port, user, password);
+            long endNanos = System.nanoTime();
+            if (authStartNanos == 0L) {
+                metrics.recordConnect(endNanos - startNanos);
+            } else {
+                metrics.recordConnect(authStartNanos - startNanos);
+                metrics.recordAuth(endNanos - authStartNanos);
+            }
+            return result;
+        } catch (MessagingException ex) {
+            metrics.recordError((authStartNanos == 0L) ? MailSenderMetrics.PHASE_CONNECT : MailSenderMetrics.PHASE_AUTH, getReplyCode(ex));
+            throw ex;
+        }
+    }
+
+    @Override
+    public synchronized int simpleCommand(String command) throws MessagingException {
+        if (authStartNanos == 0L && command != null && command.regionMatches(true, 0, "AUTH ", 0, 5)) {
+            authStartNanos = System.nanoTime();
+        }
+        return super.simpleCommand(command);
+    }
+
+    @Override
+    public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        long startNanos = System.nanoTime();
+        dataBytes = 0L;
+        try {
+            super.sendMessage(message, addresses);
+            metrics.recordData(System.nanoTime() - startNanos, dataBytes);
+        } catch (MessagingException ex) {
+            metrics.recordError(MailSenderMetrics.PHASE_DATA, getReplyCode(ex));
+            throw ex;
+        }
+    }
+
+    @Override
+    protected OutputStream data() throws MessagingException {
+        return new CountingOutputStream(super.data());
+    }
+
+    @Override
+    protected OutputStream bdat() throws MessagingException {
+        return new CountingOutputStream(super.bdat());
+    }
+
+    private int getReplyCode(@Nonnull MessagingException ex) {
+        int result = MailSenderUtils.getReplyCode(ex);
+        return (result > 0) ? result : getLastReturnCode();
+    }
+
+
+    /**
+     * Output stream that counts the bytes of the data phase
+     *
+     * @author David Hsing
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        public CountingOutputStream(@Nonnull OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            dataBytes++;
+        }
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            dataBytes += len;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
+import jakarta.annotation.Nonnull;
+
+
+/**
+ * Socket factory that disables Nagle's algorithm of the sockets that created by the delegate factory
+ * <p>
+ * A {@code BDAT} command and its chunk are written separately, with Nagle's algorithm, the chunk waits for the acknowledgement of the command,
+ * which is usually delayed by the server, since the server is waiting for the chunk.
+ *
+ * @author David Hsing
+ * @see java.net.StandardSocketOptions#TCP_NODELAY
+ */
+@SuppressWarnings("unused")
+public class NoDelaySocketFactory extends SocketFactory {
+    private final SocketFactory delegate;
+
+    private NoDelaySocketFactory(@Nonnull SocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Returns a socket factory that wraps the delegate, which is also an {@link javax.net.ssl.SSLSocketFactory} if the delegate is
+     * <p>
+     * A plain factory must not be an {@link javax.net.ssl.SSLSocketFactory}, otherwise the mail provider treats it as an SSL one.
+     *
+     * @param delegate the factory that creates the sockets
+     *
+     * @return a socket factory that wraps the delegate
+     */
+    @Nonnull
+    public static SocketFactory of(@Nonnull SocketFactory delegate) {
+        if (delegate instanceof NoDelaySocketFactory || delegate instanceof Ssl) {
+            return delegate;
+        }
+        return (delegate instanceof SSLSocketFactory factory) ? new Ssl(factory) : new NoDelaySocketFactory(delegate);
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return noDelay(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return noDelay(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return noDelay(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return noDelay(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    @Nonnull
+    private static Socket noDelay(@Nonnull Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+
+    /**
+     * SSL socket factory that disables Nagle's algorithm of the sockets that created by the delegate factory
+     *
+     * @author David Hsing
+     */
+    private static class Ssl extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        private Ssl(@Nonnull SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return noDelay(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, InputStream consumed, boolean autoClose) throws IOException {
+            return noDelay(delegate.createSocket(socket, consumed, autoClose));
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.InternetAddress;
+import org.eclipse.angus.mail.smtp.SMTPMessage;
+import org.eclipse.angus.mail.smtp.SMTPTransport;
+
+
+/**
+ * {@link org.eclipse.angus.mail.smtp.SMTPTransport} that pipelines the envelope commands, when the server advertises {@code PIPELINING}
+ * <p>
+ * The {@code MAIL FROM} command and all the {@code RCPT TO} commands of a message are written in one round trip,
+ * then the replies are read one by one as usual, so that the handling of rejected recipients is not changed.
+ * The {@code DATA} command is never pipelined, since the content must not be sent if no recipient is accepted.
+ * <p>
+ * Messages with DSN notifications or group addresses are sent without pipelining.
+ *
+ * @author David Hsing
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc2920">RFC 2920</a>
+ */
+@SuppressWarnings("unused")
+public class PipeliningSmtpTransport extends SMTPTransport {
+    private static final String PIPELINING = "PIPELINING";    // $NON-NLS-1$
+    private static final String MAIL_COMMAND = "MAIL FROM:";    // $NON-NLS-1$
+    private static final String RCPT_COMMAND = "RCPT TO:";    // $NON-NLS-1$
+    private static final String CRLF = "\r\n";    // $NON-NLS-1$
+
+    private final String protocol;
+    private final boolean pipelining;
+    private final Deque<String> pipelinedCommands = new ArrayDeque<>();
+    private Address[] envelope;
+
+    /**
+     * Constructs a transport
+     *
+     * @param session the session of the transport
+     * @param urlName the url name of the transport
+     * @param protocol the protocol of the transport, {@code smtp} or {@code smtps}
+     * @param pipelining whether to pipeline the envelope commands or not
+     */
+    public PipeliningSmtpTransport(@Nonnull Session session, @Nonnull URLName urlName, @Nonnull String protocol, boolean pipelining) {
+        super(session, urlName, protocol, "smtps".equals(protocol));
+        this.protocol = protocol;
+        this.pipelining = pipelining;
+    }
+
+    @Override
+    protected synchronized boolean protocolConnect(String host, int port, String user, String password) throws MessagingException {
+        pipelinedCommands.clear();
+        return super.protocolConnect(host, port, user, password);
+    }
+
+    @Override
+    public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        envelope = isPipelinable(message, addresses) ? addresses : null;
+        try {
+            super.sendMessage(message, addresses);
+        } finally {
+            envelope = null;
+        }
+    }
+
+    @Override
+    protected void sendCommand(String command) throws MessagingException {
+        if (!pipelinedCommands.isEmpty() && pipelinedCommands.peekFirst().equals(command)) {
+            // Already sent, the reply will be read by the caller
+            pipelinedCommands.removeFirst();
+            return;
+        }
+        discardPipelinedReplies();
+        if (envelope != null && command.startsWith(MAIL_COMMAND) && supportsExtension(PIPELINING)) {
+            StringBuilder builder = new StringBuilder(command);
+            for (Address address : envelope) {
+                String recipient = RCPT_COMMAND + normalizeAddress(((InternetAddress) address).getAddress());
+                builder.append(CRLF).append(recipient);
+                pipelinedCommands.addLast(recipient);
+            }
+            envelope = null;
+            super.sendCommand(builder.toString());
+            return;
+        }
+        super.sendCommand(command);
+    }
+
+    @Override
+    protected int simpleCommand(byte[] command) throws MessagingException {
+        discardPipelinedReplies();
+        return super.simpleCommand(command);
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    private boolean isPipelinable(@Nullable Message message, @Nullable Address[] addresses) {
+        if (!pipelining || addresses == null || addresses.length == 0 || message instanceof SMTPMessage) {
+            return false;
+        }
+        if (session.getProperty("mail." + protocol + ".dsn.notify") != null) {
+            return false;
+        }
+        for (Address address : addresses) {
+            if (!(address instanceof InternetAddress internet) || internet.isGroup() || internet.getAddress() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads and discards the replies of the pipelined commands that will never be consumed, such as after a rejected {@code MAIL FROM}
+     */
+    private void discardPipelinedReplies() throws MessagingException {
+        while (!pipelinedCommands.isEmpty()) {
+            pipelinedCommands.removeFirst();
+            super.readServerResponse();
+        }
+    }
+
+    @Nonnull
+    private static String normalizeAddress(@Nonnull String address) {
+        return (!address.startsWith("<") && !address.endsWith(">")) ? "<" + address + ">" : address;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.enumeration.MailPriority;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * Mail sender that sends messages asynchronously by priorities, with a lock-free queue and a concurrency budget for each priority
+ * <p>
+ * When a sending completes, the free concurrency is given to the waiting priorities by smooth weighted round-robin,
+ * so a busy priority gets its share but could not starve the others. Since each priority could not exceed its own {@code max-in-flight},
+ * the concurrency above the budget of the low priority is always free for the messages with higher priorities, even while a bulk job is running.
+ * <p>
+ * The dispatching is serialized by a flag instead of a lock, whichever thread submits or completes a sending dispatches on behalf of the others.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.enumeration.MailPriority
+ */
+@SuppressWarnings("unused")
+public class PriorityMailSender implements DisposableBean {
+    private static final long POLL_MILLIS = 10L;
+    private final String name;
+    private final JavaMailSender mailSender;
+    private final int concurrency;
+    private final Lane[] lanes;
+    private final AsyncTaskExecutor executor;
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a priority sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the priority properties
+     */
+    public PriorityMailSender(@Nonnull String name, @Nonnull JavaMailSender mailSender, @Nonnull MailSenderProperties.Priority properties) {
+        Assert.isTrue(properties.getConcurrency() != null && properties.getConcurrency() > 0, "Priority concurrency must be positive");
+        this.name = name;
+        this.mailSender = mailSender;
+        this.concurrency = properties.getConcurrency();
+        this.lanes = new Lane[MailPriority.values().length];
+        this.lanes[MailPriority.HIGH.ordinal()] = new Lane(MailPriority.HIGH, properties.getHigh());
+        this.lanes[MailPriority.NORMAL.ordinal()] = new Lane(MailPriority.NORMAL, properties.getNormal());
+        this.lanes[MailPriority.LOW.ordinal()] = new Lane(MailPriority.LOW, properties.getLow());
+        this.executor = MailSenderUtils.createTaskExecutor(name + "-", concurrency, Boolean.TRUE.equals(properties.getVirtualThreads()));
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MailPriority priority, @Nonnull SimpleMailMessage... simpleMessages) {
+        return submit(priority, () -> mailSender.send(simpleMessages));
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MailPriority priority, @Nonnull MimeMessage... mimeMessages) {
+        return submit(priority, () -> mailSender.send(mimeMessages));
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MailPriority priority, @Nonnull MimeMessagePreparator... preparators) {
+        return submit(priority, () -> mailSender.send(preparators));
+    }
+
+    /**
+     * Returns the number of sendings of the priority that waiting in the queue
+     *
+     * @param priority the priority of the sendings
+     *
+     * @return the number of sendings of the priority that waiting in the queue
+     */
+    public int getQueuedCount(@Nonnull MailPriority priority) {
+        return lanes[priority.ordinal()].queuedCount.get();
+    }
+
+    /**
+     * Returns the number of sendings of the priority that holding SMTP sessions
+     *
+     * @param priority the priority of the sendings
+     *
+     * @return the number of sendings of the priority that holding SMTP sessions
+     */
+    public int getInFlightCount(@Nonnull MailPriority priority) {
+        return lanes[priority.ordinal()].inFlightCount.get();
+    }
+
+    /**
+     * Returns the number of sendings that holding SMTP sessions, across all the priorities
+     *
+     * @return the number of sendings that holding SMTP sessions
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    @Nonnull
+    private CompletableFuture<Void> submit(@Nonnull MailPriority priority, @Nonnull Runnable action) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new MailSendException(String.format("Priority sender '%s' has been shut down", name)));
+            return future;
+        }
+        Lane lane = lanes[priority.ordinal()];
+        if (lane.queuedCount.incrementAndGet() > lane.queueCapacity) {
+            lane.queuedCount.decrementAndGet();
+            future.completeExceptionally(new MailSendException(String.format("Queue of priority '%s' of priority sender '%s' is full", priority, name)));
+            return future;
+        }
+        lane.queue.offer(new Task(action, future));
+        dispatch();
+        return future;
+    }
+
+    private void dispatch() {
+        while (dispatching.compareAndSet(false, true)) {
+            try {
+                while (inFlightCount.get() < concurrency) {
+                    Lane lane = pickLane();
+                    Task task = (lane == null) ? null : lane.queue.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    lane.queuedCount.decrementAndGet();
+                    lane.inFlightCount.incrementAndGet();
+                    inFlightCount.incrementAndGet();
+                    try {
+                        executor.execute(() -> execute(lane, task));
+                    } catch (RuntimeException ex) {
+                        lane.inFlightCount.decrementAndGet();
+                        inFlightCount.decrementAndGet();
+                        task.future.completeExceptionally(ex);
+                    }
+                }
+            } finally {
+                dispatching.set(false);
+            }
+            // Another thread may have submitted or completed after the loop, but failed to take the flag
+            if (!isDispatchable()) {
+                return;
+            }
+        }
+    }
+
+    private void execute(@Nonnull Lane lane, @Nonnull Task task) {
+        try {
+            task.action.run();
+            task.future.complete(null);
+        } catch (Throwable ex) {
+            task.future.completeExceptionally(ex);
+        } finally {
+            lane.inFlightCount.decrementAndGet();
+            inFlightCount.decrementAndGet();
+            dispatch();
+        }
+    }
+
+    /**
+     * Returns the lane to dispatch next by smooth weighted round-robin, only called by the dispatching thread
+     */
+    private Lane pickLane() {
+        Lane result = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes) {
+            if (lane.queue.isEmpty() || lane.inFlightCount.get() >= lane.maxInFlight) {
+                continue;
+            }
+            lane.currentWeight += lane.weight;
+            totalWeight += lane.weight;
+            if (result == null || lane.currentWeight > result.currentWeight) {
+                result = lane;
+            }
+        }
+        if (result != null) {
+            result.currentWeight -= totalWeight;
+        }
+        return result;
+    }
+
+    private boolean isDispatchable() {
+        if (inFlightCount.get() >= concurrency) {
+            return false;
+        }
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty() && lane.inFlightCount.get() < lane.maxInFlight) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+        while (System.nanoTime() - deadline < 0L && (inFlightCount.get() > 0 || isQueued())) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        MailSenderUtils.closeTaskExecutor(executor);
+        for (Lane lane : lanes) {
+            for (Task task = lane.queue.poll(); task != null; task = lane.queue.poll()) {
+                task.future.completeExceptionally(new MailSendException(String.format("Priority sender '%s' has been shut down", name)));
+            }
+        }
+    }
+
+    private boolean isQueued() {
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static class Lane {
+        private final int weight;
+        private final int maxInFlight;
+        private final int queueCapacity;
+        private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedCount = new AtomicInteger();
+        private final AtomicInteger inFlightCount = new AtomicInteger();
+        private int currentWeight;
+
+        private Lane(@Nonnull MailPriority priority, @Nonnull MailSenderProperties.Lane properties) {
+            Assert.isTrue(properties.getWeight() != null && properties.getWeight() > 0, String.format("Weight of priority '%s' must be positive", priority));
+            Assert.isTrue(properties.getMaxInFlight() != null && properties.getMaxInFlight() > 0, String.format("Max in-flight of priority '%s' must be positive", priority));
+            Assert.isTrue(properties.getQueueCapacity() != null && properties.getQueueCapacity() > 0, String.format("Queue capacity of priority '%s' must be positive", priority));
+            this.weight = properties.getWeight();
+            this.maxInFlight = properties.getMaxInFlight();
+            this.queueCapacity = properties.getQueueCapacity();
+        }
+    }
+
+
+    private record Task(Runnable action, CompletableFuture<Void> future) {
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.internet.MimeMessage;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.util.Assert;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+
+/**
+ * Mail sender for reactive applications, that sends messages on a dedicated scheduler
+ * <p>
+ * The blocking sendings never run on the shared schedulers of reactor, such as {@code boundedElastic}.
+ * A publisher of messages is requested on demand, at most {@code concurrency} messages are sending at the same time, and each message gets its own result.
+ *
+ * @author David Hsing
+ * @see org.springframework.mail.javamail.JavaMailSender
+ */
+@SuppressWarnings("unused")
+public class ReactiveMailSender implements DisposableBean {
+    private final JavaMailSender mailSender;
+    private final Scheduler scheduler;
+    private final int concurrency;
+
+    /**
+     * Constructs a reactive sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the reactive properties
+     */
+    public ReactiveMailSender(@Nonnull String name, @Nonnull JavaMailSender mailSender, @Nonnull MailSenderProperties.Reactive properties) {
+        Assert.isTrue(properties.getConcurrency() != null && properties.getConcurrency() > 0, "Reactive concurrency must be positive");
+        Assert.isTrue(properties.getQueueCapacity() != null && properties.getQueueCapacity() > 0, "Reactive queue capacity must be positive");
+        this.mailSender = mailSender;
+        this.concurrency = properties.getConcurrency();
+        this.scheduler = Schedulers.newBoundedElastic(concurrency, properties.getQueueCapacity(), name, 60, true);
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    @Nonnull
+    public Mono<Void> send(@Nonnull SimpleMailMessage simpleMessage) {
+        return Mono.fromCallable(() -> {
+            MimeMailMessage message = new MimeMailMessage(mailSender.createMimeMessage());
+            simpleMessage.copyTo(message);
+            return message.getMimeMessage();
+        }).flatMap(this::send);
+    }
+
+    /**
+     * Returns a mono that sends the message on subscribing
+     *
+     * @param mimeMessage the message to send
+     *
+     * @return a mono that sends the message on subscribing, and errors if the message could not be sent
+     */
+    @Nonnull
+    public Mono<Void> send(@Nonnull MimeMessage mimeMessage) {
+        return Mono.<Void>fromRunnable(() -> mailSender.send(mimeMessage)).subscribeOn(scheduler);
+    }
+
+    /**
+     * Returns a flux of the result of each message, in the order of completion
+     * <p>
+     * The publisher is requested on demand, so a slow mail server throttles the publisher, instead of buffering the messages.
+     * A failed message does not terminate the flux.
+     *
+     * @param mimeMessages the messages to send
+     *
+     * @return a flux of the result of each message, in the order of completion
+     */
+    @Nonnull
+    public Flux<Result> send(@Nonnull Publisher<? extends MimeMessage> mimeMessages) {
+        return Flux.from(mimeMessages).flatMap(message -> send(message).thenReturn(new Result(message, null)).onErrorResume(ex -> Mono.just(new Result(message, ex))), concurrency, 1);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+
+    /**
+     * Result of a message
+     *
+     * @param message the message that sent
+     * @param error the cause of the failure, or null if the message has been sent
+     */
+    public record Result(@Nonnull MimeMessage message, @Nullable Throwable error) {
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
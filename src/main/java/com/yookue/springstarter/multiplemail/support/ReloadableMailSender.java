@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Properties;
+import java.util.function.Supplier;
+import jakarta.activation.FileTypeMap;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.MailException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+
+/**
+ * {@link org.springframework.mail.javamail.JavaMailSenderImpl} that delegates to a swappable sender, so that its configuration could be reloaded at runtime
+ * <p>
+ * Each sending call reads the delegate once, so the in-flight calls finish with the previous delegate, while the new calls go to the new one at once.
+ * The previous delegate is destroyed after its in-flight calls are finished, its borrowed transports are closed when they are given back.
+ * The initial delegate could be built on first use, see {@link com.yookue.springstarter.multiplemail.support.LazyMailSender}.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailSenderReloader
+ */
+@SuppressWarnings("unused")
+public class ReloadableMailSender extends JavaMailSenderImpl implements DisposableBean {
+    private final String name;
+    private volatile DecoratedMailSender delegate;
+    private volatile MailSenderMetrics metrics;
+    private volatile MailIdempotencyStore idempotencyStore;
+    private Supplier<DecoratedMailSender> initializer;
+
+    /**
+     * Constructs a reloadable sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param delegate the initial delegate
+     */
+    public ReloadableMailSender(@Nonnull String name, @Nonnull DecoratedMailSender delegate) {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Constructs a reloadable sender, that builds the initial delegate on first use
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param initializer the builder of the initial delegate, called once unless it fails
+     */
+    protected ReloadableMailSender(@Nonnull String name, @Nonnull Supplier<DecoratedMailSender> initializer) {
+        this.name = name;
+        this.initializer = initializer;
+    }
+
+    @Override
+    protected void doSend(@Nonnull MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        DecoratedMailSender current = acquireDelegate();
+        try {
+            current.doSend(mimeMessages, originalMessages);
+        } finally {
+            current.releaseInFlight();
+        }
+    }
+
+    @Override
+    public void testConnection() throws MessagingException {
+        DecoratedMailSender current = acquireDelegate();
+        try {
+            current.testConnection();
+        } finally {
+            current.releaseInFlight();
+        }
+    }
+
+    /**
+     * Replaces the delegate, and destroys the previous one after its in-flight calls are finished, the unexpired idempotency keys of the previous one are inherited
+     *
+     * @param newDelegate the new delegate
+     */
+    public void swapDelegate(@Nonnull DecoratedMailSender newDelegate) {
+        if (metrics != null && newDelegate.getMetrics() == null) {
+            newDelegate.setMetrics(metrics);
+        }
+        applyIdempotencyStore(newDelegate);
+        DecoratedMailSender previous;
+        synchronized (this) {
+            previous = delegate;
+            if (previous != null && previous.getIdempotencyGuard() != null && newDelegate.getIdempotencyGuard() != null && previous != newDelegate) {
+                newDelegate.getIdempotencyGuard().inherit(previous.getIdempotencyGuard());
+            }
+            delegate = newDelegate;
+            initializer = null;
+        }
+        if (previous != null && previous != newDelegate) {
+            // The in-flight calls keep sending by the previous delegate, it is destroyed after the last one
+            previous.retire();
+        }
+    }
+
+    /**
+     * Returns the current delegate, that marked with an in-flight call, the caller must call {@link DecoratedMailSender#releaseInFlight()} when finished
+     */
+    @Nonnull
+    private DecoratedMailSender acquireDelegate() {
+        while (true) {
+            DecoratedMailSender result = getDelegate();
+            result.acquireInFlight();
+            if (result == delegate) {
+                return result;
+            }
+            // Swapped before marked, the previous delegate may have been destroyed
+            result.releaseInFlight();
+        }
+    }
+
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the current delegate, builds the initial one if it has not been built
+     *
+     * @return the current delegate
+     */
+    @Nonnull
+    public DecoratedMailSender getDelegate() {
+        DecoratedMailSender result = delegate;
+        if (result == null) {
+            synchronized (this) {
+                result = delegate;
+                if (result == null) {
+                    result = initializer.get();
+                    if (metrics != null && result.getMetrics() == null) {
+                        result.setMetrics(metrics);
+                    }
+                    applyIdempotencyStore(result);
+                    delegate = result;
+                    initializer = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean isInitialized() {
+        return delegate != null;
+    }
+
+    @Nullable
+    public MailSenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics to the current delegate and all the later ones
+     *
+     * @param metrics the metrics of this sender
+     */
+    public void setMetrics(@Nullable MailSenderMetrics metrics) {
+        this.metrics = metrics;
+        DecoratedMailSender current = delegate;
+        if (current != null) {
+            current.setMetrics(metrics);
+        }
+    }
+
+    @Nullable
+    public MailIdempotencyStore getIdempotencyStore() {
+        return idempotencyStore;
+    }
+
+    /**
+     * Sets the idempotency store to the guard of the current delegate and all the later ones
+     *
+     * @param idempotencyStore the idempotency store of this sender
+     */
+    public void setIdempotencyStore(@Nullable MailIdempotencyStore idempotencyStore) {
+        this.idempotencyStore = idempotencyStore;
+        DecoratedMailSender current = delegate;
+        if (current != null) {
+            applyIdempotencyStore(current);
+        }
+    }
+
+    private void applyIdempotencyStore(@Nonnull DecoratedMailSender sender) {
+        if (idempotencyStore != null && sender.getIdempotencyGuard() != null) {
+            sender.getIdempotencyGuard().setStore(idempotencyStore);
+        }
+    }
+
+    @Override
+    public Properties getJavaMailProperties() {
+        return getDelegate().getJavaMailProperties();
+    }
+
+    @Override
+    public Session getSession() {
+        return getDelegate().getSession();
+    }
+
+    @Override
+    public String getProtocol() {
+        return getDelegate().getProtocol();
+    }
+
+    @Override
+    public String getHost() {
+        return getDelegate().getHost();
+    }
+
+    @Override
+    public int getPort() {
+        return getDelegate().getPort();
+    }
+
+    @Override
+    public String getUsername() {
+        return getDelegate().getUsername();
+    }
+
+    @Override
+    public String getPassword() {
+        return getDelegate().getPassword();
+    }
+
+    @Override
+    public String getDefaultEncoding() {
+        return getDelegate().getDefaultEncoding();
+    }
+
+    @Override
+    public FileTypeMap getDefaultFileTypeMap() {
+        return getDelegate().getDefaultFileTypeMap();
+    }
+
+    @Override
+    public void destroy() {
+        DecoratedMailSender current = delegate;
+        if (current != null) {
+            current.destroy();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import jakarta.annotation.Nonnull;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+import lombok.extern.apachecommons.CommonsLog;
+
+
+/**
+ * Mail sender that retries the transient failures asynchronously, with exponential backoff and jitter
+ * <p>
+ * A failure is retried if its SMTP reply code is {@code 4xx}, or if there is no reply code, such as a broken connection,
+ * while the {@code 5xx} replies, authentication failures and failures after the message is sent are failed at once.
+ * If some recipients have been sent or rejected, the retries are sent to the valid unsent recipients only. The retries wait on a {@link MailRetryTimer} instead of sleeping threads,
+ * and at most {@code retry-concurrency} retries are sending at the same time, the others are postponed by a tick, so that a retry storm could not overload the server.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailRetryTimer
+ */
+@CommonsLog
+@SuppressWarnings("unused")
+public class RetryingMailSender implements DisposableBean {
+    private final String name;
+    private final JavaMailSender mailSender;
+    private final MailSenderProperties.Retry properties;
+    private final AsyncTaskExecutor executor;
+    private final MailRetryTimer timer;
+    private final Semaphore retryPermits;
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final long tickNanos;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a retrying sender
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param mailSender the actual sender
+     * @param properties the retry properties
+     */
+    public RetryingMailSender(@Nonnull String name, @Nonnull JavaMailSender mailSender, @Nonnull MailSenderProperties.Retry properties) {
+        Assert.isTrue(properties.getMaxAttempts() != null && properties.getMaxAttempts() > 0, "Retry max attempts must be positive");
+        Assert.isTrue(properties.getConcurrency() != null && properties.getConcurrency() > 0, "Retry concurrency must be positive");
+        Assert.isTrue(properties.getRetryConcurrency() != null && properties.getRetryConcurrency() > 0, "Retry concurrency of retries must be positive");
+        Assert.isTrue(properties.getMaxPending() != null && properties.getMaxPending() >= 0, "Retry max pending must not be negative");
+        Duration tick = (properties.getTickDuration() == null) ? Duration.ofMillis(100L) : properties.getTickDuration();
+        this.name = name;
+        this.mailSender = mailSender;
+        this.properties = properties;
+        this.initialDelayNanos = (properties.getInitialDelay() == null) ? 0L : Math.max(properties.getInitialDelay().toNanos(), 0L);
+        this.maxDelayNanos = (properties.getMaxDelay() == null) ? Long.MAX_VALUE : Math.max(properties.getMaxDelay().toNanos(), initialDelayNanos);
+        this.tickNanos = tick.toNanos();
+        this.retryPermits = new Semaphore(Math.min(properties.getRetryConcurrency(), properties.getConcurrency()));
+        this.executor = MailSenderUtils.createTaskExecutor(name + "-", properties.getConcurrency(), Boolean.TRUE.equals(properties.getVirtualThreads()));
+        this.timer = new MailRetryTimer(name + "-timer", tick);
+    }
+
+    @Nonnull
+    public MimeMessage createMimeMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull SimpleMailMessage simpleMessage) {
+        MimeMailMessage message = new MimeMailMessage(mailSender.createMimeMessage());
+        simpleMessage.copyTo(message);
+        return send(message.getMimeMessage());
+    }
+
+    /**
+     * Sends the message asynchronously, retries it on transient failures
+     *
+     * @param mimeMessage the message to send
+     *
+     * @return a future that completes when the message is sent, or completes exceptionally with the last failure
+     */
+    @Nonnull
+    public CompletableFuture<Void> send(@Nonnull MimeMessage mimeMessage) {
+        Attempt attempt = new Attempt(mimeMessage);
+        if (!running) {
+            attempt.future.completeExceptionally(new MailSendException(String.format("Retrying sender '%s' has been shut down", name)));
+            return attempt.future;
+        }
+        try {
+            executor.execute(attempt::send);
+        } catch (RuntimeException ex) {
+            attempt.future.completeExceptionally(ex);
+        }
+        return attempt.future;
+    }
+
+    /**
+     * Returns the number of messages that waiting for retries
+     *
+     * @return the number of messages that waiting for retries
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Returns whether the failure is transient and worth retrying or not
+     *
+     * @param ex the failure of an attempt
+     *
+     * @return whether the failure is transient and worth retrying or not
+     */
+    protected boolean isRetryable(@Nonnull Exception ex) {
+        if (ex instanceof MailAuthenticationException || ex instanceof MailParseException || ex instanceof MailPreparationException) {
+            return false;
+        }
+        if (ex instanceof MailSendException sendException && sendException.getFailedMessages().isEmpty()) {
+            // Thrown after the message is sent, such as failing to close the connection
+            return false;
+        }
+        int replyCode = MailSenderUtils.getReplyCode(ex);
+        if (replyCode >= 200 && replyCode < 300) {
+            // Sent to a part of the recipients, the reply of the unsent recipients decides
+            SendFailedException sendFailed = MailSenderUtils.getSendFailedException(ex);
+            replyCode = (sendFailed == null) ? -1 : MailSenderUtils.getReplyCode(sendFailed.getNextException());
+        }
+        return replyCode < 0 || (replyCode >= 400 && replyCode < 500);
+    }
+
+    /**
+     * Returns the delay before the next attempt, after the specified number of attempts
+     *
+     * @param attempts the number of attempts that have failed
+     *
+     * @return the delay before the next attempt in nanoseconds
+     */
+    protected long getDelayNanos(int attempts) {
+        double multiplier = (properties.getMultiplier() == null) ? 1D : Math.max(properties.getMultiplier(), 1D);
+        double delay = Math.min(initialDelayNanos * Math.pow(multiplier, attempts - 1), maxDelayNanos);
+        double jitter = (properties.getJitter() == null) ? 0D : Math.min(Math.max(properties.getJitter(), 0D), 1D);
+        return (long) (delay * (1D - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        for (Runnable task : timer.stop()) {
+            if (task instanceof Attempt attempt) {
+                pendingCount.decrementAndGet();
+                attempt.future.completeExceptionally(attempt.lastFailure);
+            }
+        }
+        MailSenderUtils.closeTaskExecutor(executor);
+    }
+
+
+    /**
+     * Attempts of sending a message, runs as the timer task of its next retry
+     */
+    private class Attempt implements Runnable {
+        private final MimeMessage message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int attempts;
+        private Exception lastFailure;
+        private Address[] recipients;
+
+        private Attempt(@Nonnull MimeMessage message) {
+            this.message = message;
+        }
+
+        private void send() {
+            attempts++;
+            try {
+                mailSender.send((recipients == null) ? message : new RetryMimeMessage(message, recipients));
+                future.complete(null);
+            } catch (Exception ex) {
+                lastFailure = ex;
+                narrowRecipients(ex);
+                scheduleRetry();
+            } finally {
+                if (attempts > 1) {
+                    retryPermits.release();
+                }
+            }
+        }
+
+        /**
+         * Keeps the valid unsent recipients for the next attempt, if the failure tells the recipients that have been sent or rejected
+         */
+        private void narrowRecipients(@Nonnull Exception ex) {
+            SendFailedException sendFailed = MailSenderUtils.getSendFailedException(ex);
+            if (sendFailed == null || (ObjectUtils.isEmpty(sendFailed.getValidSentAddresses()) && ObjectUtils.isEmpty(sendFailed.getInvalidAddresses()))) {
+                return;
+            }
+            Address[] unsent = sendFailed.getValidUnsentAddresses();
+            recipients = (unsent == null) ? new Address[0] : unsent;
+        }
+
+        private void scheduleRetry() {
+            if (recipients != null && recipients.length == 0) {
+                future.completeExceptionally(lastFailure);
+                return;
+            }
+            if (attempts >= properties.getMaxAttempts() || !isRetryable(lastFailure) || !running) {
+                future.completeExceptionally(lastFailure);
+                return;
+            }
+            if (pendingCount.incrementAndGet() > properties.getMaxPending()) {
+                pendingCount.decrementAndGet();
+                future.completeExceptionally(lastFailure);
+                return;
+            }
+            long delayNanos = getDelayNanos(attempts);
+            if (log.isWarnEnabled()) {
+                log.warn(String.format("Retrying sender '%s' failed to send message on attempt %d, retrying in %d ms", name, attempts, delayNanos / 1_000_000L), lastFailure);
+            }
+            try {
+                timer.schedule(this, delayNanos);
+            } catch (IllegalStateException ex) {
+                pendingCount.decrementAndGet();
+                future.completeExceptionally(lastFailure);
+            }
+        }
+
+        /**
+         * Runs on the timer thread when the delay elapsed, hands over the retry to the executor if there is a free permit
+         */
+        @Override
+        public void run() {
+            if (!retryPermits.tryAcquire()) {
+                try {
+                    timer.schedule(this, tickNanos);
+                } catch (IllegalStateException ex) {
+                    pendingCount.decrementAndGet();
+                    future.completeExceptionally(lastFailure);
+                }
+                return;
+            }
+            pendingCount.decrementAndGet();
+            try {
+                executor.execute(this::send);
+            } catch (RuntimeException ex) {
+                retryPermits.release();
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+
+
+    /**
+     * Copy of a message that is sent to a part of its recipients, keeping the {@code Message-ID} of the message
+     *
+     * @author David Hsing
+     */
+    private static class RetryMimeMessage extends MimeMessage {
+        private final Address[] recipients;
+
+        private RetryMimeMessage(@Nonnull MimeMessage source, @Nonnull Address[] recipients) throws MessagingException {
+            super(source);
+            this.recipients = recipients;
+        }
+
+        @Override
+        public Address[] getAllRecipients() {
+            return recipients;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.Address;
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import com.yookue.springstarter.multiplemail.util.MailSenderUtils;
+
+
+/**
+ * Mail sender that routes the recipients to the member senders by their domains
+ * <p>
+ * The recipients of each message are grouped by the routed member senders, and each group is sent in one SMTP transaction,
+ * with the same headers and content, so that a relay receives all of its recipients at once instead of one by one.
+ * The messages that routed to the same member sender are sent together, over one transport.
+ * <p>
+ * A domain route could be an exact domain, such as {@code example.com}, or a wildcard of the sub domains, such as {@code *.example.com}.
+ * The recipients that match no route are sent by the default sender.
+ * <p>
+ * If some groups of a message failed, the failure of the message is a {@link jakarta.mail.SendFailedException} that tells the sent, unsent and invalid recipients,
+ * so that a retry could send to the unsent recipients only.
+ *
+ * @author David Hsing
+ */
+@SuppressWarnings("unused")
+public class RoutingMailSender extends AbstractCompositeMailSender {
+    private static final String WILDCARD_PREFIX = "*.";    // $NON-NLS-1$
+
+    private final String defaultSender;
+    private final Map<String, String> domainRoutes = new HashMap<>();
+    private final Map<String, String> wildcardRoutes = new HashMap<>();
+
+    /**
+     * Constructs a routing sender
+     *
+     * @param mailSenders the member senders, keyed by names
+     * @param defaultSender the name of the member sender for the recipients that match no route
+     * @param routes the domains of the member senders, keyed by names
+     */
+    public RoutingMailSender(@Nonnull Map<String, JavaMailSender> mailSenders, @Nonnull String defaultSender, @Nullable Map<String, List<String>> routes) {
+        super(mailSenders);
+        Assert.isTrue(mailSenders.containsKey(defaultSender), String.format("Default sender '%s' is not a member sender", defaultSender));
+        this.defaultSender = defaultSender;
+        if (routes != null) {
+            routes.forEach((name, domains) -> {
+                Assert.isTrue(mailSenders.containsKey(name), String.format("Routed sender '%s' is not a member sender", name));
+                for (String domain : domains) {
+                    String normalized = domain.trim().toLowerCase(Locale.ROOT);
+                    if (normalized.startsWith(WILDCARD_PREFIX)) {
+                        wildcardRoutes.put(normalized.substring(WILDCARD_PREFIX.length()), name);
+                    } else if (!normalized.isEmpty()) {
+                        domainRoutes.put(normalized, name);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void doSend(@Nonnull MimeMessage[] mimeMessages) throws MailException {
+        Map<String, List<MimeMessage>> groups = new LinkedHashMap<>();
+        Map<MimeMessage, MimeMessage> originals = new IdentityHashMap<>();
+        Map<MimeMessage, SplitOutcome> splitOutcomes = new IdentityHashMap<>();
+        Map<Object, Exception> failures = new LinkedHashMap<>();
+        for (MimeMessage message : mimeMessages) {
+            try {
+                Map<String, List<Address>> recipients = groupRecipients(message);
+                if (recipients.size() <= 1) {
+                    String name = recipients.isEmpty() ? defaultSender : recipients.keySet().iterator().next();
+                    groups.computeIfAbsent(name, key -> new ArrayList<>()).add(message);
+                    continue;
+                }
+                // Fixes the message id, so that all the groups share the same one
+                message.saveChanges();
+                for (Map.Entry<String, List<Address>> entry : recipients.entrySet()) {
+                    MimeMessage envelope = new EnvelopeMimeMessage(message, entry.getValue().toArray(new Address[0]));
+                    groups.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(envelope);
+                    originals.put(envelope, message);
+                }
+                splitOutcomes.put(message, new SplitOutcome());
+            } catch (MessagingException ex) {
+                failures.put(message, new MailParseException(ex));
+            }
+        }
+        MailSendException closeFailure = null;
+        for (Map.Entry<String, List<MimeMessage>> group : groups.entrySet()) {
+            MimeMessage[] messages = group.getValue().toArray(new MimeMessage[0]);
+            Map<Object, Exception> groupFailures = new IdentityHashMap<>();
+            try {
+                getMailSenders().get(group.getKey()).send(messages);
+            } catch (MailSendException ex) {
+                if (ex.getFailedMessages().isEmpty()) {
+                    // Thrown after the messages are sent, such as failing to close the connection
+                    closeFailure = ex;
+                } else {
+                    groupFailures.putAll(ex.getFailedMessages());
+                }
+            } catch (MailException ex) {
+                for (MimeMessage message : messages) {
+                    groupFailures.put(message, ex);
+                }
+            }
+            for (MimeMessage message : messages) {
+                MimeMessage original = originals.get(message);
+                if (original != null) {
+                    splitOutcomes.get(original).record(((EnvelopeMimeMessage) message).recipients, groupFailures.remove(message));
+                }
+            }
+            groupFailures.forEach((message, failure) -> failures.putIfAbsent(message, failure));
+        }
+        splitOutcomes.forEach((message, outcome) -> {
+            if (outcome.failure != null) {
+                failures.putIfAbsent(message, outcome.toException());
+            }
+        });
+        if (!failures.isEmpty()) {
+            throw new MailSendException("Failed to send messages by routed senders", null, failures);
+        }
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+
+    /**
+     * Returns the name of the member sender for the recipient
+     *
+     * @param address the address of the recipient
+     *
+     * @return the name of the member sender for the recipient
+     */
+    @Nonnull
+    public String route(@Nonnull Address address) {
+        if (!(address instanceof InternetAddress internet) || internet.getAddress() == null) {
+            return defaultSender;
+        }
+        String email = internet.getAddress();
+        int index = email.lastIndexOf('@');
+        if (index < 0) {
+            return defaultSender;
+        }
+        String domain = email.substring(index + 1).toLowerCase(Locale.ROOT);
+        String result = domainRoutes.get(domain);
+        if (result != null) {
+            return result;
+        }
+        for (int dot = domain.indexOf('.'); dot >= 0; dot = domain.indexOf('.', dot + 1)) {
+            result = wildcardRoutes.get(domain.substring(dot + 1));
+            if (result != null) {
+                return result;
+            }
+        }
+        return defaultSender;
+    }
+
+    @Nonnull
+    private Map<String, List<Address>> groupRecipients(@Nonnull MimeMessage message) throws MessagingException {
+        Address[] addresses = message.getAllRecipients();
+        if (addresses == null || addresses.length == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<Address>> result = new LinkedHashMap<>();
+        for (Address address : addresses) {
+            result.computeIfAbsent(route(address), key -> new ArrayList<>()).add(address);
+        }
+        return result;
+    }
+
+    @Nonnull
+    public String getDefaultSender() {
+        return defaultSender;
+    }
+
+
+    /**
+     * Outcome of a message that split into the groups of routed senders
+     *
+     * @author David Hsing
+     */
+    private static class SplitOutcome {
+        private final List<Address> sentAddresses = new ArrayList<>();
+        private final List<Address> unsentAddresses = new ArrayList<>();
+        private final List<Address> invalidAddresses = new ArrayList<>();
+        private Exception failure;
+
+        private void record(@Nonnull Address[] recipients, @Nullable Exception groupFailure) {
+            if (groupFailure == null) {
+                sentAddresses.addAll(Arrays.asList(recipients));
+                return;
+            }
+            if (failure == null) {
+                failure = groupFailure;
+            }
+            SendFailedException sendFailed = MailSenderUtils.getSendFailedException(groupFailure);
+            if (sendFailed == null || (ObjectUtils.isEmpty(sendFailed.getValidSentAddresses()) && ObjectUtils.isEmpty(sendFailed.getValidUnsentAddresses()) && ObjectUtils.isEmpty(sendFailed.getInvalidAddresses()))) {
+                unsentAddresses.addAll(Arrays.asList(recipients));
+                return;
+            }
+            addAll(sentAddresses, sendFailed.getValidSentAddresses());
+            addAll(unsentAddresses, sendFailed.getValidUnsentAddresses());
+            addAll(invalidAddresses, sendFailed.getInvalidAddresses());
+        }
+
+        /**
+         * Returns the failure that tells the sent, unsent and invalid recipients, caused by the failure of the first failed group
+         */
+        @Nonnull
+        private SendFailedException toException() {
+            return new SendFailedException("Failed to send message to a part of the recipients by routed senders", failure, sentAddresses.toArray(new Address[0]), unsentAddresses.toArray(new Address[0]), invalidAddresses.toArray(new Address[0]));
+        }
+
+        private static void addAll(@Nonnull List<Address> target, @Nullable Address[] addresses) {
+            if (addresses != null) {
+                target.addAll(Arrays.asList(addresses));
+            }
+        }
+    }
+
+
+    /**
+     * Message that shares the headers and content of another message, but is sent to a part of its recipients
+     *
+     * @author David Hsing
+     */
+    private static class EnvelopeMimeMessage extends MimeMessage {
+        private final Address[] recipients;
+
+        private EnvelopeMimeMessage(@Nonnull MimeMessage source, @Nonnull Address[] recipients) throws MessagingException {
+            super(source.getSession());
+            this.recipients = recipients;
+            setDataHandler(source.getDataHandler());
+            Enumeration<Header> headers = source.getAllHeaders();
+            while (headers.hasMoreElements()) {
+                Header header = headers.nextElement();
+                addHeader(header.getName(), header.getValue());
+            }
+        }
+
+        @Override
+        public Address[] getAllRecipients() {
+            return recipients;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.util.Base64;
+import jakarta.activation.DataHandler;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.PreencodedMimeBodyPart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+
+/**
+ * Static mime part, such as logos and footers, that encoded in base64 once and shared by all the messages
+ * <p>
+ * The encoded bytes are never modified after constructing, each message gets a light body part that writes the bytes as they are.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.MailComposer
+ */
+@SuppressWarnings("unused")
+public class StaticMimePart {
+    private static final String ENCODING = "base64";    // $NON-NLS-1$
+
+    private final String contentType;
+    private final String filename;
+    private final byte[] encoded;
+    private final int rawSize;
+
+    /**
+     * Constructs a static part
+     *
+     * @param content the raw content of the part
+     * @param contentType the content type of the part, such as {@code image/png}
+     * @param filename the filename of the part, could be null
+     */
+    public StaticMimePart(@Nonnull byte[] content, @Nonnull String contentType, @Nullable String filename) {
+        this.contentType = contentType;
+        this.filename = filename;
+        this.encoded = Base64.getMimeEncoder().encode(content);
+        this.rawSize = content.length;
+    }
+
+    /**
+     * Returns a new body part that shares the encoded bytes
+     *
+     * @param contentId the content id for inline parts, such as {@code logo}, null means an attachment
+     *
+     * @return a new body part that shares the encoded bytes
+     *
+     * @throws MessagingException if the headers could not be set
+     */
+    @Nonnull
+    public MimeBodyPart createBodyPart(@Nullable String contentId) throws MessagingException {
+        PreencodedMimeBodyPart result = new PreencodedMimeBodyPart(ENCODING);
+        result.setDataHandler(new DataHandler(new ByteArrayDataSource(encoded, contentType)));
+        if (contentId != null) {
+            result.setDisposition(Part.INLINE);
+            result.setContentID("<" + contentId + ">");
+        } else {
+            result.setDisposition(Part.ATTACHMENT);
+        }
+        if (filename != null) {
+            result.setFileName(filename);
+        }
+        return result;
+    }
+
+    @Nonnull
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Nullable
+    public String getFilename() {
+        return filename;
+    }
+
+    public int getRawSize() {
+        return rawSize;
+    }
+
+    public int getEncodedSize() {
+        return encoded.length;
+    }
+}
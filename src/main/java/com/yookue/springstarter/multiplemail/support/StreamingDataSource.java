@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.support;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jakarta.activation.DataSource;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+
+/**
+ * Data source that reads the content from a {@link Path}, a {@link FileChannel} or an {@link InputStream} on demand
+ * <p>
+ * The content is never copied into memory, it is read in small chunks while the message is written to the SMTP socket.
+ * A data source of an {@link InputStream} could be read only once, so the message could not be sent again, such as on failover.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.util.MailAttachmentUtils
+ */
+@SuppressWarnings("unused")
+public class StreamingDataSource implements DataSource {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final String name;
+    private final String contentType;
+    private final Path path;
+    private final FileChannel channel;
+    private final InputStream stream;
+    private final AtomicBoolean consumed = new AtomicBoolean();
+
+    private StreamingDataSource(@Nonnull String name, @Nonnull String contentType, @Nullable Path path, @Nullable FileChannel channel, @Nullable InputStream stream) {
+        this.name = name;
+        this.contentType = contentType;
+        this.path = path;
+        this.channel = channel;
+        this.stream = stream;
+    }
+
+    /**
+     * Returns a data source that opens the file on each reading
+     *
+     * @param name the name of the data source, usually the filename
+     * @param contentType the content type of the data source
+     * @param path the path of the file
+     *
+     * @return a data source that opens the file on each reading
+     */
+    @Nonnull
+    public static StreamingDataSource of(@Nonnull String name, @Nonnull String contentType, @Nonnull Path path) {
+        return new StreamingDataSource(name, contentType, path, null, null);
+    }
+
+    /**
+     * Returns a data source that reads the channel by positions, from zero to the size of the channel
+     * <p>
+     * The position of the channel is never changed, and the channel is never closed by the data source.
+     *
+     * @param name the name of the data source, usually the filename
+     * @param contentType the content type of the data source
+     * @param channel the channel of the file
+     *
+     * @return a data source that reads the channel by positions
+     */
+    @Nonnull
+    public static StreamingDataSource of(@Nonnull String name, @Nonnull String contentType, @Nonnull FileChannel channel) {
+        return new StreamingDataSource(name, contentType, null, channel, null);
+    }
+
+    /**
+     * Returns a data source that could be read only once
+     *
+     * @param name the name of the data source, usually the filename
+     * @param contentType the content type of the data source
+     * @param stream the stream of the content, closed after reading
+     *
+     * @return a data source that could be read only once
+     */
+    @Nonnull
+    public static StreamingDataSource of(@Nonnull String name, @Nonnull String contentType, @Nonnull InputStream stream) {
+        return new StreamingDataSource(name, contentType, null, null, stream);
+    }
+
+    @Override
+    @Nonnull
+    public InputStream getInputStream() throws IOException {
+        if (path != null) {
+            return Files.newInputStream(path);
+        }
+        if (channel != null) {
+            return new ChannelInputStream(channel);
+        }
+        if (!consumed.compareAndSet(false, true)) {
+            throw new IOException(String.format("Stream of data source '%s' has been consumed", name));
+        }
+        return stream;
+    }
+
+    @Override
+    @Nonnull
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Streaming data source is read only");
+    }
+
+    @Override
+    @Nonnull
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the size of the content, or {@code -1} if unknown
+     *
+     * @return the size of the content, or {@code -1} if unknown
+     */
+    public long getSize() {
+        try {
+            if (path != null) {
+                return Files.size(path);
+            }
+            if (channel != null) {
+                return channel.size();
+            }
+        } catch (IOException ignored) {
+        }
+        return -1L;
+    }
+
+
+    /**
+     * Input stream that reads a channel by positions
+     *
+     * @author David Hsing
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE).flip();
+        private long position;
+
+        private ChannelInputStream(@Nonnull FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            buffer.flip();
+            if (count <= 0) {
+                return false;
+            }
+            position += count;
+            return true;
+        }
+    }
+}
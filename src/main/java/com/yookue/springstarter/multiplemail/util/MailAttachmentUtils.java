@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yookue.springstarter.multiplemail.util;
+
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeUtility;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import com.yookue.springstarter.multiplemail.support.StreamingDataSource;
+
+
+/**
+ * Utilities for streaming attachments
+ * <p>
+ * The attachments are encoded in base64 on the fly while the message is written to the SMTP socket, so that the memory of each sending stays constant, regardless of the sizes of the attachments.
+ * The transfer encoding is fixed to base64 in advance, so the content is not scanned for choosing an encoding.
+ *
+ * @author David Hsing
+ * @see com.yookue.springstarter.multiplemail.support.StreamingDataSource
+ */
+@SuppressWarnings({"unused", "UnusedReturnValue"})
+public abstract class MailAttachmentUtils {
+    private static final String TRANSFER_ENCODING = "Content-Transfer-Encoding";    // $NON-NLS-1$
+    private static final String BASE64 = "base64";    // $NON-NLS-1$
+
+    /**
+     * Adds an attachment that streamed from the file
+     *
+     * @param helper the multipart helper of the message
+     * @param filename the filename of the attachment
+     * @param path the path of the file
+     *
+     * @return the body part of the attachment
+     *
+     * @throws MessagingException if the attachment could not be added
+     */
+    @Nonnull
+    public static MimeBodyPart addAttachment(@Nonnull MimeMessageHelper helper, @Nonnull String filename, @Nonnull Path path) throws MessagingException {
+        return addAttachment(helper, filename, StreamingDataSource.of(filename, getContentType(helper, filename), path));
+    }
+
+    /**
+     * Adds an attachment that streamed from the channel, without changing the position of the channel
+     * <p>
+     * The channel must stay open until the message is sent.
+     *
+     * @param helper the multipart helper of the message
+     * @param filename the filename of the attachment
+     * @param channel the channel of the file
+     *
+     * @return the body part of the attachment
+     *
+     * @throws MessagingException if the attachment could not be added
+     */
+    @Nonnull
+    public static MimeBodyPart addAttachment(@Nonnull MimeMessageHelper helper, @Nonnull String filename, @Nonnull FileChannel channel) throws MessagingException {
+        return addAttachment(helper, filename, StreamingDataSource.of(filename, getContentType(helper, filename), channel));
+    }
+
+    /**
+     * Adds an attachment that streamed from the input stream
+     * <p>
+     * The stream could be read only once, so the message could be sent only once. Note that a {@code text/*} attachment is read twice when {@code mail.smtp.allow8bitmime} is enabled.
+     *
+     * @param helper the multipart helper of the message
+     * @param filename the filename of the attachment
+     * @param stream the stream of the content, closed after sending
+     * @param contentType the content type of the attachment, null means determined by the filename
+     *
+     * @return the body part of the attachment
+     *
+     * @throws MessagingException if the attachment could not be added
+     */
+    @Nonnull
+    public static MimeBodyPart addAttachment(@Nonnull MimeMessageHelper helper, @Nonnull String filename, @Nonnull InputStream stream, @Nullable String contentType) throws MessagingException {
+        return addAttachment(helper, filename, StreamingDataSource.of(filename, (contentType != null) ? contentType : getContentType(helper, filename), stream));
+    }
+
+    /**
+     * Adds an attachment that streamed from the data source
+     *
+     * @param helper the multipart helper of the message
+     * @param filename the filename of the attachment
+     * @param dataSource the data source of the content
+     *
+     * @return the body part of the attachment
+     *
+     * @throws MessagingException if the attachment could not be added
+     */
+    @Nonnull
+    public static MimeBodyPart addAttachment(@Nonnull MimeMessageHelper helper, @Nonnull String filename, @Nonnull DataSource dataSource) throws MessagingException {
+        MimeBodyPart part = createBodyPart(dataSource);
+        part.setDisposition(Part.ATTACHMENT);
+        try {
+            part.setFileName(helper.isEncodeFilenames() ? MimeUtility.encodeText(filename) : filename);
+        } catch (UnsupportedEncodingException ex) {
+            throw new MessagingException("Failed to encode attachment filename", ex);
+        }
+        helper.getRootMimeMultipart().addBodyPart(part);
+        return part;
+    }
+
+    /**
+     * Adds an inline part that streamed from the file, that could be referenced by {@code cid:contentId}
+     *
+     * @param helper the multipart helper of the message
+     * @param contentId the content id of the part
+     * @param path the path of the file
+     *
+     * @return the body part of the inline part
+     *
+     * @throws MessagingException if the part could not be added
+     */
+    @Nonnull
+    public static MimeBodyPart addInline(@Nonnull MimeMessageHelper helper, @Nonnull String contentId, @Nonnull Path path) throws MessagingException {
+        String filename = path.getFileName().toString();
+        MimeBodyPart part = createBodyPart(StreamingDataSource.of(filename, getContentType(helper, filename), path));
+        part.setDisposition(Part.INLINE);
+        part.setContentID("<" + contentId + ">");
+        helper.getMimeMultipart().addBodyPart(part);
+        return part;
+    }
+
+    @Nonnull
+    private static MimeBodyPart createBodyPart(@Nonnull DataSource dataSource) throws MessagingException {
+        MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(dataSource));
+        part.setHeader(TRANSFER_ENCODING, BASE64);
+        return part;
+    }
+
+    @Nonnull
+    private static String getContentType(@Nonnull MimeMessageHelper helper, @Nonnull String filename) {
+        return helper.getFileTypeMap().getContentType(filename);
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2020 Yookue Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yookue.springstarter.multiplemail.util;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSenderFailedException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.autoconfigure.mail.MailConfigurationUtils;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import com.yookue.springstarter.multiplemail.property.MailSenderProperties;
+import com.yookue.springstarter.multiplemail.support.DecoratedMailSender;
+import com.yookue.springstarter.multiplemail.support.MailIdempotencyGuard;
+import com.yookue.springstarter.multiplemail.support.MailRateLimiter;
+import com.yookue.springstarter.multiplemail.support.ReloadableMailSender;
+
+
+/**
+ * Utilities for decorating mail sender
+ *
+ * @author David Hsing
+ * @see org.springframework.mail.javamail.JavaMailSenderImpl
+ */
+@SuppressWarnings({"unused", "BooleanMethodIsAlwaysInverted", "UnusedReturnValue"})
+public abstract class MailSenderUtils {
+    public static final String MAIL_PROPERTIES_SUFFIX = "MailProperties";    // $NON-NLS-1$
+    public static final String SENDER_PROPERTIES_SUFFIX = "MailSenderProperties";    // $NON-NLS-1$
+    public static final String MAIL_SESSION_SUFFIX = "MailSession";    // $NON-NLS-1$
+    public static final String MAIL_SENDER_SUFFIX = "MailSender";    // $NON-NLS-1$
+    public static final String ASYNC_SENDER_SUFFIX = "AsyncMailSender";    // $NON-NLS-1$
+    public static final String BATCH_SENDER_SUFFIX = "BatchMailSender";    // $NON-NLS-1$
+    public static final String MAIL_OUTBOX_SUFFIX = "MailOutbox";    // $NON-NLS-1$
+    public static final String REACTIVE_SENDER_SUFFIX = "ReactiveMailSender";    // $NON-NLS-1$
+    public static final String PRIORITY_SENDER_SUFFIX = "PriorityMailSender";    // $NON-NLS-1$
+    public static final String RETRYING_SENDER_SUFFIX = "RetryingMailSender";    // $NON-NLS-1$
+    public static final String FAN_OUT_SENDER_SUFFIX = "FanOutMailSender";    // $NON-NLS-1$
+    public static final String SSL_BUNDLES_SUFFIX = "MailSslBundles";    // $NON-NLS-1$
+    public static final String STARTER_SENDER_ATTRIBUTE = "multipleMailStarterSender";    // $NON-NLS-1$
+    private static final String CONFIG_PACKAGE_PREFIX = "com.yookue.springstarter.multiplemail.config.";    // $NON-NLS-1$
+    private static final int TERMINATION_SECONDS = 30;
+
+    /**
+     * Returns the decorated sender according to the extra properties
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param sender the source sender that built by spring boot
+     * @param properties the extra properties of the sender
+     *
+     * @return the decorated sender, or the source sender if there is nothing to decorate
+     */
+    @Nonnull
+    public static JavaMailSenderImpl decorateMailSender(@Nonnull String name, @Nonnull JavaMailSenderImpl sender, @Nullable MailSenderProperties properties) {
+        if (properties == null) {
+            return sender;
+        }
+        boolean pooled = Boolean.TRUE.equals(properties.getPool().getEnabled());
+        boolean limited = Boolean.TRUE.equals(properties.getRateLimit().getEnabled());
+        boolean extended = Boolean.TRUE.equals(properties.getEsmtp().getPipelining()) || Boolean.TRUE.equals(properties.getEsmtp().getChunking());
+        boolean idempotent = Boolean.TRUE.equals(properties.getIdempotency().getEnabled());
+        if (!pooled && !limited && !extended && !idempotent) {
+            return sender;
+        }
+        return createDecoratedMailSender(name, sender, properties);
+    }
+
+    /**
+     * Returns a decorated sender according to the extra properties, even if there is nothing to decorate
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param sender the source sender that built by spring boot
+     * @param properties the extra properties of the sender
+     *
+     * @return a decorated sender according to the extra properties
+     */
+    @Nonnull
+    public static DecoratedMailSender createDecoratedMailSender(@Nonnull String name, @Nonnull JavaMailSenderImpl sender, @Nullable MailSenderProperties properties) {
+        DecoratedMailSender result = (sender instanceof DecoratedMailSender decorated) ? decorated : new DecoratedMailSender(sender);
+        if (properties != null && Boolean.TRUE.equals(properties.getPool().getEnabled())) {
+            result.initTransportPool(name, properties.getPool());
+        }
+        if (properties != null && Boolean.TRUE.equals(properties.getRateLimit().getEnabled())) {
+            result.setRateLimiter(new MailRateLimiter(name, properties.getRateLimit()));
+        }
+        if (properties != null && Boolean.TRUE.equals(properties.getIdempotency().getEnabled())) {
+            result.setIdempotencyGuard(new MailIdempotencyGuard(name, properties.getIdempotency()));
+        }
+        if (properties != null) {
+            MailSenderProperties.Esmtp esmtp = properties.getEsmtp();
+            result.setPipelining(Boolean.TRUE.equals(esmtp.getPipelining()));
+            result.setChunkSize((Boolean.TRUE.equals(esmtp.getChunking()) && esmtp.getChunkSize() != null) ? esmtp.getChunkSize().toBytes() : 0L);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a decorated sender that built from the properties, by JNDI if {@code jndi-name} is present, or by host otherwise
+     *
+     * @param name the name of the sender, usually the bean name
+     * @param properties the properties of the sender
+     * @param senderProperties the extra properties of the sender
+     * @param bundles the ssl bundles, for ssl connections
+     *
+     * @return a decorated sender that built from the properties
+     *
+     * @throws IllegalStateException if the JNDI session could not be found
+     */
+    @Nonnull
+    public static DecoratedMailSender buildMailSender(@Nonnull String name, @Nonnull MailProperties properties, @Nullable MailSenderProperties senderProperties, @Nullable SslBundles bundles) throws IllegalStateException {
+        JavaMailSenderImpl sender = (properties.getJndiName() != null) ? MailConfigurationUtils.jndiMailSender(properties, MailConfigurationUtils.jndiMailSession(properties)) : MailConfigurationUtils.classicMailSender(properties, bundles);
+        return createDecoratedMailSender(name, sender, senderProperties);
+    }
+
+    /**
+     * Returns the senders that {@code test-connection} is {@code true}, keyed by the bean names of the senders
+     * <p>
+     * The senders are paired with the properties by bean names, such as {@code primaryMailSenderProperties} and {@code primaryMailSender}
+     *
+     * @param beanFactory the bean factory to look up
+     *
+     * @return the senders that {@code test-connection} is {@code true}, keyed by the bean names of the senders
+     */
+    @Nonnull
+    public static Map<String, JavaMailSenderImpl> getTestableMailSenders(@Nonnull ListableBeanFactory beanFactory) {
+        Map<String, JavaMailSenderImpl> result = new LinkedHashMap<>();
+        for (Map.Entry<String, MailSenderProperties> entry : beanFactory.getBeansOfType(MailSenderProperties.class).entrySet()) {
+            if (!Boolean.TRUE.equals(entry.getValue().getTestConnection()) || !entry.getKey().endsWith(SENDER_PROPERTIES_SUFFIX)) {
+                continue;
+            }
+            String senderName = entry.getKey().substring(0, entry.getKey().length() - SENDER_PROPERTIES_SUFFIX.length()) + MAIL_SENDER_SUFFIX;
+            if (beanFactory.containsBean(senderName) && beanFactory.isTypeMatch(senderName, JavaMailSenderImpl.class)) {
+                result.put(senderName, beanFactory.getBean(senderName, JavaMailSenderImpl.class));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the sender bean is created by this starter, rather than declared by the application
+     * <p>
+     * The decorated and reloadable senders are always created by this starter, while a plain {@link org.springframework.mail.javamail.JavaMailSenderImpl}
+     * is only if it is declared by the slot configurations, or registered by {@link com.yookue.springstarter.multiplemail.support.MailSenderRegistrar}.
+     * The subclasses of {@link org.springframework.mail.javamail.JavaMailSenderImpl} are never considered, since copying them would lose their behaviours.
+     *
+     * @param beanFactory the bean factory that the sender belongs to
+     * @param beanName the bean name of the sender
+     * @param sender the sender to inspect
+     *
+     * @return whether the sender bean is created by this starter
+     */
+    public static boolean isStarterMailSender(@Nullable BeanFactory beanFactory, @Nonnull String beanName, @Nonnull JavaMailSenderImpl sender) {
+        if (sender instanceof DecoratedMailSender || sender instanceof ReloadableMailSender) {
+            return true;
+        }
+        if (sender.getClass() != JavaMailSenderImpl.class || !(beanFactory instanceof ConfigurableListableBeanFactory factory) || !factory.containsBeanDefinition(beanName)) {
+            return false;
+        }
+        BeanDefinition definition = factory.getBeanDefinition(beanName);
+        if (Boolean.TRUE.equals(definition.getAttribute(STARTER_SENDER_ATTRIBUTE))) {
+            return true;
+        }
+        MethodMetadata factoryMethod = (definition instanceof AnnotatedBeanDefinition annotated) ? annotated.getFactoryMethodMetadata() : null;
+        return factoryMethod != null && factoryMethod.getDeclaringClassName().startsWith(CONFIG_PACKAGE_PREFIX);
+    }
+
+    /**
+     * Returns a task executor that runs on virtual threads if possible, or on a bounded pool of platform threads
+     * <p>
+     * Virtual threads require jdk 21+, on earlier jdk, the executor falls back to a pool with {@code concurrency} threads.
+     *
+     * @param threadNamePrefix the prefix of thread names
+     * @param concurrency the maximum number of platform threads, if virtual threads are not available
+     * @param virtualThreads whether to prefer virtual threads or not
+     *
+     * @return a task executor that runs on virtual threads if possible, or on a bounded pool of platform threads
+     */
+    @Nonnull
+    public static AsyncTaskExecutor createTaskExecutor(@Nonnull String threadNamePrefix, int concurrency, boolean virtualThreads) {
+        if (virtualThreads && JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+            executor.setVirtualThreads(true);
+            executor.setTaskTerminationTimeout(TERMINATION_SECONDS * 1000L);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(Math.max(concurrency, 1));
+        executor.setMaxPoolSize(Math.max(concurrency, 1));
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(TERMINATION_SECONDS);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Shuts down the executor that created by {@link #createTaskExecutor(String, int, boolean)}
+     *
+     * @param executor the executor to shut down
+     */
+    public static void closeTaskExecutor(@Nullable Executor executor) {
+        try {
+            if (executor instanceof DisposableBean bean) {
+                bean.destroy();
+            } else if (executor instanceof AutoCloseable closeable) {
+                closeable.close();
+            } else if (executor instanceof ExecutorService service) {
+                service.shutdown();
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Returns the senders of the given bean names, in order
+     *
+     * @param beanFactory the bean factory to look up
+     * @param beanNames the bean names of the senders
+     *
+     * @return the senders of the given bean names, in order
+     *
+     * @throws org.springframework.beans.factory.NoSuchBeanDefinitionException if any sender does not exist
+     */
+    @Nonnull
+    public static Map<String, JavaMailSender> getMailSenders(@Nonnull ListableBeanFactory beanFactory, @Nullable Iterable<String> beanNames) {
+        Map<String, JavaMailSender> result = new LinkedHashMap<>();
+        if (beanNames != null) {
+            for (String beanName : beanNames) {
+                result.put(beanName, beanFactory.getBean(beanName, JavaMailSender.class));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the SMTP reply code of the exception, looking up the causes, the next exceptions and the first failed message of {@link org.springframework.mail.MailSendException}
+     *
+     * @param throwable the exception to inspect
+     *
+     * @return the SMTP reply code of the exception, or {@code -1} if there is no reply code
+     */
+    public static int getReplyCode(@Nullable Throwable throwable) {
+        for (int depth = 0; throwable != null && depth < 16; depth++) {
+            if (throwable instanceof SMTPSendFailedException ex) {
+                return ex.getReturnCode();
+            } else if (throwable instanceof SMTPAddressFailedException ex) {
+                return ex.getReturnCode();
+            } else if (throwable instanceof SMTPSenderFailedException ex) {
+                return ex.getReturnCode();
+            }
+            Throwable next = (throwable instanceof MessagingException ex) ? ex.getNextException() : null;
+            if (throwable instanceof MailSendException ex && ex.getMessageExceptions().length > 0) {
+                next = ex.getMessageExceptions()[0];
+            }
+            throwable = (next != null) ? next : throwable.getCause();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the {@link jakarta.mail.SendFailedException} of the exception, that tells the sent, unsent and invalid recipients, looking up the causes and the first failed message of {@link org.springframework.mail.MailSendException}
+     *
+     * @param throwable the exception to inspect
+     *
+     * @return the {@link jakarta.mail.SendFailedException} of the exception, or {@code null} if there is none
+     */
+    @Nullable
+    public static SendFailedException getSendFailedException(@Nullable Throwable throwable) {
+        for (int depth = 0; throwable != null && depth < 16; depth++) {
+            if (throwable instanceof SendFailedException ex) {
+                return ex;
+            }
+            Throwable next = null;
+            if (throwable instanceof MailSendException ex && ex.getMessageExceptions().length > 0) {
+                next = ex.getMessageExceptions()[0];
+            }
+            throwable = (next != null) ? next : throwable.getCause();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the camel case of the name, as the prefix of bean names, such as {@code backupRelay} for {@code backup-relay}
+     *
+     * @param name the name to convert
+     *
+     * @return the camel case of the name
+     */
+    @Nonnull
+    public static String toBeanNamePrefix(@Nonnull String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        boolean upper = false;
+        for (char ch : name.toCharArray()) {
+            if (ch == '-' || ch == '_' || ch == '.') {
+                upper = !builder.isEmpty();
+            } else {
+                builder.append(upper ? Character.toUpperCase(ch) : ch);
+                upper = false;
+            }
+        }
+        return builder.toString();
+    }
+}
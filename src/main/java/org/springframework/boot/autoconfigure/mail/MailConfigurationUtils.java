@@ -17,22 +17,35 @@
 package org.springframework.boot.autoconfigure.mail;
 
 
+import java.util.Map;
+import java.util.Properties;
+import javax.net.ssl.SSLSocketFactory;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import jakarta.mail.Session;
+import org.springframework.boot.ssl.SslBundle;
 import org.springframework.boot.ssl.SslBundles;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.StringUtils;
 import com.yookue.commonplexus.springutil.support.SingletonObjectProvider;
 
 
 /**
  * Utilities for configuring mail sender
+ * <p>
+ * The classic senders with the same effective properties share one {@link jakarta.mail.Session},
+ * and the senders with the same ssl bundle share one {@link javax.net.ssl.SSLSocketFactory}, so that the TLS sessions could be resumed across senders.
+ * Both caches are softly referenced, a reloaded ssl bundle is a new instance, which gets its own socket factory.
  *
  * @author David Hsing
  * @see org.springframework.mail.javamail.JavaMailSenderImpl
  */
 @SuppressWarnings({"unused", "BooleanMethodIsAlwaysInverted", "UnusedReturnValue"})
 public abstract class MailConfigurationUtils {
+    private static final Map<SslBundle, SSLSocketFactory> SSL_SOCKET_FACTORIES = new ConcurrentReferenceHashMap<>();
+    private static final Map<Properties, Session> MAIL_SESSIONS = new ConcurrentReferenceHashMap<>();
+
     public static Session jndiMailSession(@Nonnull MailProperties properties) throws IllegalStateException {
         MailSenderJndiConfiguration configuration = new MailSenderJndiConfiguration(properties);
         return configuration.session();
@@ -45,6 +58,45 @@ public abstract class MailConfigurationUtils {
 
     public static JavaMailSenderImpl classicMailSender(@Nonnull MailProperties properties, @Nullable SslBundles bundles) {
         MailSenderPropertiesConfiguration configuration = new MailSenderPropertiesConfiguration();
-        return configuration.mailSender(properties, SingletonObjectProvider.ofNullable(bundles));
+        JavaMailSenderImpl result = configuration.mailSender(properties, SingletonObjectProvider.ofNullable(bundles));
+        String bundleName = properties.getSsl().getBundle();
+        if (bundles != null && StringUtils.hasText(bundleName)) {
+            String protocol = StringUtils.hasLength(properties.getProtocol()) ? properties.getProtocol() : "smtp";
+            SslBundle bundle = bundles.getBundle(bundleName);
+            result.getJavaMailProperties().put("mail." + protocol + ".ssl.socketFactory", SSL_SOCKET_FACTORIES.computeIfAbsent(bundle, element -> element.createSslContext().getSocketFactory()));
+        }
+        result.setSession(sharedMailSession(result.getJavaMailProperties()));
+        return result;
+    }
+
+    /**
+     * Returns the session of the properties, shared by all the callers with equal properties
+     * <p>
+     * The cache key and the session own separate copies of the properties, so that neither changing the given properties nor the properties of the session affects the key.
+     *
+     * @param properties the effective properties of the session
+     *
+     * @return the session of the properties
+     */
+    @Nonnull
+    public static Session sharedMailSession(@Nonnull Properties properties) {
+        Properties key = new Properties();
+        key.putAll(properties);
+        return MAIL_SESSIONS.computeIfAbsent(key, element -> {
+            Properties sessionProperties = new Properties();
+            sessionProperties.putAll(element);
+            return Session.getInstance(sessionProperties);
+        });
+    }
+
+    /**
+     * Returns whether the session is the shared session of its properties
+     *
+     * @param session the session to check
+     *
+     * @return whether the session is the shared session of its properties
+     */
+    public static boolean isSharedMailSession(@Nonnull Session session) {
+        return MAIL_SESSIONS.get(session.getProperties()) == session;
     }
 }